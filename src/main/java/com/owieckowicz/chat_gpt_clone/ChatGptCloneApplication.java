@@ -2,8 +2,10 @@ package com.owieckowicz.chat_gpt_clone;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class ChatGptCloneApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,183 @@
+package com.owieckowicz.chat_gpt_clone.common.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Small thread-safe LRU cache with an optional per-entry TTL and a weight bound
+ * (entry count by default). Keeps hit, miss and eviction counters.
+ */
+public class LruCache<K, V> {
+
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final Duration defaultTtl;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private LruCache(long maxWeight, ToLongFunction<V> weigher, Duration defaultTtl) {
+        if (maxWeight <= 0) throw new IllegalArgumentException("maxWeight must be positive");
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.defaultTtl = defaultTtl;
+    }
+
+    /**
+     * Cache bounded by number of entries. A null ttl means entries never expire.
+     */
+    public static <K, V> LruCache<K, V> ofSize(long maxEntries, Duration ttl) {
+        return new LruCache<>(maxEntries, v -> 1L, ttl);
+    }
+
+    /**
+     * Cache bounded by the total weight of its values. A null ttl means entries never expire.
+     */
+    public static <K, V> LruCache<K, V> weighted(long maxWeight, ToLongFunction<V> weigher, Duration ttl) {
+        return new LruCache<>(maxWeight, weigher, ttl);
+    }
+
+    public synchronized V get(K key) {
+        Entry<V> e = entries.get(key);
+        if (e == null) {
+            misses.increment();
+            return null;
+        }
+        if (e.isExpired(System.nanoTime())) {
+            entries.remove(key);
+            weight -= e.weight;
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return e.value;
+    }
+
+    public void put(K key, V value) {
+        put(key, value, defaultTtl);
+    }
+
+    public synchronized void put(K key, V value, Duration ttl) {
+        if (value == null) {
+            invalidate(key);
+            return;
+        }
+        long w = Math.max(0, weigher.applyAsLong(value));
+        if (w > maxWeight) {
+            invalidate(key);
+            return;
+        }
+        long expiresAt = ttl == null ? Long.MAX_VALUE : System.nanoTime() + ttl.toNanos();
+        Entry<V> previous = entries.put(key, new Entry<>(value, w, expiresAt));
+        if (previous != null) weight -= previous.weight;
+        weight += w;
+        evictIfNeeded();
+    }
+
+    public synchronized void invalidate(K key) {
+        Entry<V> removed = entries.remove(key);
+        if (removed != null) weight -= removed.weight;
+    }
+
+    public synchronized void invalidateIf(Predicate<K> predicate) {
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<K, Entry<V>> e = it.next();
+            if (predicate.test(e.getKey())) {
+                weight -= e.getValue().weight;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * Snapshot of the live values, least recently used first. Drops expired entries and does not
+     * count as hits or change recency.
+     */
+    public synchronized List<V> values() {
+        long now = System.nanoTime();
+        List<V> live = new ArrayList<>(entries.size());
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<V> e = it.next().getValue();
+            if (e.isExpired(now)) {
+                weight -= e.weight;
+                it.remove();
+            } else {
+                live.add(e.value);
+            }
+        }
+        return live;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Publishes the counters as {@code cache.gets}, {@code cache.evictions} and {@code cache.size},
+     * tagged with the given cache name.
+     */
+    public LruCache<K, V> bindTo(MeterRegistry registry, String name) {
+        FunctionCounter.builder("cache.gets", this, LruCache::hits)
+                .tags("cache", name, "result", "hit").register(registry);
+        FunctionCounter.builder("cache.gets", this, LruCache::misses)
+                .tags("cache", name, "result", "miss").register(registry);
+        FunctionCounter.builder("cache.evictions", this, LruCache::evictions)
+                .tag("cache", name).register(registry);
+        Gauge.builder("cache.size", this, LruCache::size)
+                .tag("cache", name).register(registry);
+        return this;
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            Entry<V> eldest = it.next().getValue();
+            weight -= eldest.weight;
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private record Entry<V>(V value, long weight, long expiresAt) {
+        boolean isExpired(long now) {
+            return expiresAt != Long.MAX_VALUE && now - expiresAt > 0;
+        }
+    }
+}
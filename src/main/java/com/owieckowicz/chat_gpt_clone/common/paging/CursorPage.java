@@ -0,0 +1,25 @@
+package com.owieckowicz.chat_gpt_clone.common.paging;
+
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated list; {@code nextCursor} is null on the last page.
+ */
+public record CursorPage<T>(List<T> items, String nextCursor) {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    /**
+     * Items as the response body, the next cursor in the {@value #NEXT_CURSOR_HEADER} header.
+     */
+    public ResponseEntity<List<T>> toResponse() {
+        var response = ResponseEntity.ok();
+        if (nextCursor != null) response.header(NEXT_CURSOR_HEADER, nextCursor);
+        return response.body(items);
+    }
+
+    public static int clampLimit(int limit, int max) {
+        return Math.max(1, Math.min(max, limit));
+    }
+}
@@ -1,5 +1,6 @@
 package com.owieckowicz.chat_gpt_clone.config;
 
+import com.owieckowicz.chat_gpt_clone.common.paging.CursorPage;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -13,6 +14,7 @@ public class WebCorsConfig implements WebMvcConfigurer {
                 .allowedOrigins("http://localhost:3000", "http://127.0.0.1:3000")
                 .allowedMethods("GET", "POST", "OPTIONS")
                 .allowedHeaders("*")
+                .exposedHeaders(CursorPage.NEXT_CURSOR_HEADER)
                 .allowCredentials(false);
     }
 }
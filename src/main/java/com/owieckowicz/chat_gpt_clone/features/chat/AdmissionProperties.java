@@ -0,0 +1,32 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Limits for generation requests per model ({@code chat.admission.*}).
+ *
+ * @param defaultMaxConcurrent generations run at once for models not listed in {@code models}
+ * @param defaultMaxQueue      requests allowed to wait for such a model before new ones get 429
+ * @param maxWait              longest a queued request waits before it fails
+ * @param models               limits per model name
+ */
+@ConfigurationProperties(prefix = "chat.admission")
+public record AdmissionProperties(
+        @DefaultValue("2") int defaultMaxConcurrent,
+        @DefaultValue("32") int defaultMaxQueue,
+        @DefaultValue("60s") Duration maxWait,
+        @DefaultValue List<ModelLimit> models
+) {
+    public record ModelLimit(String name, int maxConcurrent, int maxQueue) {}
+
+    public ModelLimit limitFor(String model) {
+        for (ModelLimit m : models) {
+            if (m.name() != null && m.name().equalsIgnoreCase(model)) return m;
+        }
+        return new ModelLimit(model, defaultMaxConcurrent, defaultMaxQueue);
+    }
+}
@@ -0,0 +1,24 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * The model's wait queue is full; answered with 429 and a {@code Retry-After} hint.
+ */
+public class AdmissionRejectedException extends ResponseStatusException {
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String model, long retryAfterSeconds) {
+        super(HttpStatus.TOO_MANY_REQUESTS, "Model " + model + " is busy, retry later");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        return headers;
+    }
+}
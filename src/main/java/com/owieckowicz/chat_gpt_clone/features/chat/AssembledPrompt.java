@@ -0,0 +1,21 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prompt parts selected to fit the model's context window, with the estimated tokens per section.
+ */
+public record AssembledPrompt(
+        String system,
+        List<Message> history,
+        int contextTokens,
+        Map<PromptSection, Integer> tokens,
+        Map<PromptSection, Integer> dropped
+) {
+    public int totalTokens() {
+        return tokens.values().stream().mapToInt(Integer::intValue).sum();
+    }
+}
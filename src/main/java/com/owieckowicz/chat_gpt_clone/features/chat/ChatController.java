@@ -2,9 +2,10 @@ package com.owieckowicz.chat_gpt_clone.features.chat;
 
 import com.owieckowicz.chat_gpt_clone.features.message.MessageRequest;
 import org.springframework.core.io.ByteArrayResource;
-import org.springframework.http.MediaTypeFactory;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 
@@ -12,25 +13,30 @@ import reactor.core.publisher.Flux;
 @RequestMapping("/api/chat")
 public class ChatController {
     private final ChatService chatService;
+    private final ImagePreprocessor imagePreprocessor;
 
-    public ChatController(ChatService chatService) {
+    public ChatController(ChatService chatService, ImagePreprocessor imagePreprocessor) {
         this.chatService = chatService;
+        this.imagePreprocessor = imagePreprocessor;
     }
 
     @PostMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> chat(@RequestBody @jakarta.validation.Valid MessageRequest userMsg) {
-        return chatService.chat(userMsg.message());
+    public Flux<ServerSentEvent<String>> chat(@RequestBody @jakarta.validation.Valid MessageRequest userMsg,
+                                              @RequestHeader(value = HttpHeaders.CACHE_CONTROL, required = false) String cacheControl) {
+        boolean bypassCache = cacheControl != null
+                && (cacheControl.contains("no-cache") || cacheControl.contains("no-store"));
+        return chatService.chat(userMsg.message(), bypassCache);
     }
 
     @PostMapping(value = "/{conversationId}/messages", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> chatInConversation(@PathVariable Long conversationId, @RequestBody @jakarta.validation.Valid MessageRequest userMsg) {
+    public Flux<ServerSentEvent<String>> chatInConversation(@PathVariable Long conversationId, @RequestBody @jakarta.validation.Valid MessageRequest userMsg) {
         return chatService.chatInConversation(conversationId, userMsg.message());
     }
 
     @PostMapping(value = "/{conversationId}/messages/multimodal",
             consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
             produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> chatInConversationMultimodal(
+    public Flux<ServerSentEvent<String>> chatInConversationMultimodal(
             @PathVariable Long conversationId,
             @RequestPart("message") String message,
             @RequestPart(value = "images", required = false) MultipartFile[] images
@@ -41,18 +47,22 @@ public class ChatController {
             resources = new ByteArrayResource[images.length];
             mimeTypes = new MediaType[images.length];
             for (int i = 0; i < images.length; i++) {
-                var f = images[i];
-                resources[i] = new ByteArrayResource(f.getBytes());
-                var mt = f.getContentType();
-                if (mt != null) {
-                    mimeTypes[i] = MediaType.parseMediaType(mt);
-                } else {
-                    mimeTypes[i] = MediaTypeFactory.getMediaType(f.getOriginalFilename()).orElse(MediaType.IMAGE_JPEG);
-                }
+                ProcessedImage image = imagePreprocessor.process(images[i]);
+                resources[i] = image.resource();
+                mimeTypes[i] = image.mediaType();
             }
         }
         return chatService
                 .chatInConversationMultimodal(conversationId, message, resources, mimeTypes)
                 .onErrorResume(err -> reactor.core.publisher.Flux.empty());
     }
+
+    /**
+     * Reconnects to a reply stream; events after {@code Last-Event-ID} are replayed.
+     */
+    @GetMapping(value = "/streams/{streamId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> resume(@PathVariable String streamId,
+                                                @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return chatService.resume(streamId, lastEventId);
+    }
 }
@@ -2,138 +2,133 @@ package com.owieckowicz.chat_gpt_clone.features.chat;
 
 import com.owieckowicz.chat_gpt_clone.features.tools.DateTimeTool;
 import com.owieckowicz.chat_gpt_clone.features.message.Message;
-import com.owieckowicz.chat_gpt_clone.features.message.MessageRepository;
+import com.owieckowicz.chat_gpt_clone.features.chat.ChatStreamRegistry.ChatStreamListener;
+import com.owieckowicz.chat_gpt_clone.features.message.MessageResponse;
+import com.owieckowicz.chat_gpt_clone.features.message.MessageService;
+import com.owieckowicz.chat_gpt_clone.features.message.MessageStatus;
+import com.owieckowicz.chat_gpt_clone.features.message.MessageWriter;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
-import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
-import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.ollama.OllamaChatModel;
 import org.springframework.ai.ollama.api.OllamaOptions;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.stream.Stream;
-
 @Service
 public class ChatService {
+    private static final String VISION_MODEL = "llava";
+    private static final String STATELESS_FAIRNESS_KEY = "stateless";
 
     private final ChatClient chatClient;
-    private final MessageRepository messageRepository;
-    private final VectorStore vectorStore;
-    private final ConversationSettingsService settingsService;
-    private final WebContextBuilder webContextBuilder;
+    private final ConversationChatMemoryRepository chatMemory;
+    private final MessageWriter messageWriter;
+    private final MessageService messageService;
+    private final ChatStreamRegistry streamRegistry;
+    private final TurnPreparation turnPreparation;
+    private final GenerationAdmission admission;
+    private final SemanticResponseCache responseCache;
+    private final String chatModelName;
 
     public ChatService(OllamaChatModel chatModel,
-                       ChatMemory chatMemory,
-                       MessageRepository messageRepository,
-                       VectorStore vectorStore,
-                       ConversationSettingsService settingsService,
-                       WebContextBuilder webContextBuilder) {
-        this.chatClient = ChatClient.builder(chatModel)
-                .defaultAdvisors(MessageChatMemoryAdvisor.builder(chatMemory).build())
-                .build();
-        this.messageRepository = messageRepository;
-        this.vectorStore = vectorStore;
-        this.settingsService = settingsService;
-        this.webContextBuilder = webContextBuilder;
+                       ConversationChatMemoryRepository chatMemory,
+                       MessageWriter messageWriter,
+                       MessageService messageService,
+                       ChatStreamRegistry streamRegistry,
+                       TurnPreparation turnPreparation,
+                       GenerationAdmission admission,
+                       SemanticResponseCache responseCache,
+                       @Value("${spring.ai.ollama.chat.options.model:llama3.2}") String chatModelName) {
+        this.chatClient = ChatClient.builder(chatModel).build();
+        this.chatMemory = chatMemory;
+        this.messageWriter = messageWriter;
+        this.messageService = messageService;
+        this.streamRegistry = streamRegistry;
+        this.turnPreparation = turnPreparation;
+        this.admission = admission;
+        this.responseCache = responseCache;
+        this.chatModelName = chatModelName;
     }
 
-    public Flux<String> chat(String userMessage) {
-        return chatClient
+    /**
+     * Stateless chat. With the semantic cache enabled, a prompt close enough to an earlier one is
+     * answered from the cache as a stream, without a generation; {@code bypassCache} skips the lookup.
+     */
+    public Flux<ServerSentEvent<String>> chat(String userMessage, boolean bypassCache) {
+        SemanticResponseCache.Lookup cached = responseCache.lookup(userMessage, bypassCache);
+        if (cached.hit()) {
+            // Word-sized fragments, coalesced into frames like a generated reply
+            Flux<String> replay = Flux.fromArray(cached.answer().split("(?<=\\s)"));
+            return streamRegistry.start(streamRegistry.newStreamId(), replay, ChatStreamListener.NOOP);
+        }
+
+        GenerationAdmission.Ticket ticket = admission.enqueue(chatModelName, STATELESS_FAIRNESS_KEY);
+        Flux<String> content = ticket.run(() -> chatClient
                 .prompt()
                 .user(userMessage)
                 .stream()
-                .content();
+                .content());
+        return streamRegistry.start(streamRegistry.newStreamId(), content, new ChatStreamListener() {
+            @Override
+            public void onComplete(String answer) {
+                responseCache.store(cached, answer);
+            }
+        });
     }
 
-    public Flux<String> chatInConversation(Long conversationId, String userMessage) {
-        persistUserMessage(conversationId, userMessage);
-
-        var spec = chatClient.prompt();
+    /**
+     * Replays a stream after {@code lastEventId}. Streams no longer held in memory are answered with
+     * one event carrying the stored content: {@code complete} if generation finished, else {@code checkpoint}.
+     */
+    public Flux<ServerSentEvent<String>> resume(String streamId, String lastEventId) {
+        Flux<ServerSentEvent<String>> events = streamRegistry.resume(streamId, lastEventId);
+        if (events != null) return events;
+        MessageResponse stored = messageService.findByStreamId(streamId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown stream"));
+        return Flux.just(ServerSentEvent.builder(stored.content() == null ? "" : stored.content())
+                .event(stored.status() == MessageStatus.COMPLETE ? "complete" : "checkpoint")
+                .build());
+    }
 
-        ConversationSettings settings = settingsService.load(conversationId);
+    public Flux<ServerSentEvent<String>> chatInConversation(Long conversationId, String userMessage) {
+        GenerationAdmission.Ticket ticket = admission.enqueue(chatModelName, String.valueOf(conversationId));
+        PreparedTurn turn = prepare(conversationId, userMessage, chatModelName, 0, ticket);
+        Message placeholder = turn.placeholder();
+        AssembledPrompt prompt = turn.prompt();
 
-        String webContext = webContextBuilder.build(userMessage, settings.searchTopK(), settings.webAccessEnabled(), chatClient);
-        boolean hasSystem = settings.systemPrompt() != null && !settings.systemPrompt().isBlank();
-        boolean hasWeb = webContext != null && !webContext.isBlank();
-        if (hasSystem && hasWeb) {
-            spec = spec.system(settings.systemPrompt() + "\n\n" + webContext);
-        } else if (hasSystem) {
-            spec = spec.system(settings.systemPrompt());
-        } else if (hasWeb) {
-            spec = spec.system(webContext);
-        }
-
-        // Attach RAG advisor if enabled or if auto-detect finds uploaded docs for this conversation
-        boolean hasDocs = hasAnyUploadedDocs(conversationId);
-        boolean useRag = settings.ragEnabled() || hasDocs;
-        if (useRag) {
-            var search = SearchRequest.builder()
-                    .topK(settings.ragTopK())
-                    .filterExpression("conversationId == '" + conversationId + "'")
-                    .build();
-            var qaAdvisor = QuestionAnswerAdvisor.builder(vectorStore)
-                    .searchRequest(search)
-                    .build();
-            spec = spec.advisors(qaAdvisor);
-        }
+        var spec = chatClient.prompt()
+                .options(OllamaOptions.builder().numCtx(prompt.contextTokens()).build());
+        if (prompt.system() != null) spec = spec.system(prompt.system());
+        spec = spec.messages(prompt.history());
 
         spec = spec.user(userMessage);
 
         spec = spec.tools(new DateTimeTool());
 
-        StringBuilder assistantBuffer = new StringBuilder();
-        return spec
-                .stream()
-                .content()
-                .doOnNext(assistantBuffer::append)
-                .doOnError(err -> persistAssistantError(conversationId, err))
-                .onErrorResume(err -> Flux.empty())
-                .doOnComplete(() -> persistAssistantCompletion(conversationId, assistantBuffer.toString()));
+        var request = spec;
+        return streamRegistry.start(placeholder.getStreamId(), ticket.run(() -> request.stream().content()),
+                checkpointer(conversationId, userMessage, placeholder.getId()));
     }
 
-    public Flux<String> chatInConversationMultimodal(Long conversationId,
-                                                     String userMessage,
-                                                     org.springframework.core.io.ByteArrayResource[] images,
-                                                     org.springframework.http.MediaType[] mimeTypes) {
-        persistUserMessage(conversationId, userMessage);
-
-        var spec = chatClient.prompt();
-
-        ConversationSettings settings = settingsService.load(conversationId);
-
-        String webContext = webContextBuilder.build(userMessage, settings.searchTopK(), settings.webAccessEnabled(), chatClient);
-        boolean hasSystem = settings.systemPrompt() != null && !settings.systemPrompt().isBlank();
-        boolean hasWeb = webContext != null && !webContext.isBlank();
-        if (hasSystem && hasWeb) {
-            spec = spec.system(settings.systemPrompt() + "\n\n" + webContext);
-        } else if (hasSystem) {
-            spec = spec.system(settings.systemPrompt());
-        } else if (hasWeb) {
-            spec = spec.system(webContext);
-        }
-
-        boolean hasDocs = hasAnyUploadedDocs(conversationId);
-        boolean useRag = settings.ragEnabled() || hasDocs;
-        if (useRag) {
-            var search = SearchRequest.builder()
-                    .topK(settings.ragTopK())
-                    .filterExpression("conversationId == '" + conversationId + "'")
-                    .build();
-            var qaAdvisor = QuestionAnswerAdvisor.builder(vectorStore)
-                    .searchRequest(search)
-                    .build();
-            spec = spec.advisors(qaAdvisor);
-        }
-
+    public Flux<ServerSentEvent<String>> chatInConversationMultimodal(Long conversationId,
+                                                                      String userMessage,
+                                                                      org.springframework.core.io.ByteArrayResource[] images,
+                                                                      org.springframework.http.MediaType[] mimeTypes) {
+        GenerationAdmission.Ticket ticket = admission.enqueue(VISION_MODEL, String.valueOf(conversationId));
+        int imageCount = images != null && mimeTypes != null ? images.length : 0;
+        PreparedTurn turn = prepare(conversationId, userMessage, VISION_MODEL, imageCount, ticket);
+        Message placeholder = turn.placeholder();
+        AssembledPrompt prompt = turn.prompt();
+
+        var spec = chatClient.prompt()
+                // Vision: override model to a vision-capable one (e.g., llava)
+                .options(OllamaOptions.builder().model(VISION_MODEL).numCtx(prompt.contextTokens()).build());
+        if (prompt.system() != null) spec = spec.system(prompt.system());
+        spec = spec.messages(prompt.history());
 
         spec = spec
-                // Vision: override model to a vision-capable one (e.g., llava)
-                .options(OllamaOptions.builder().model("llava").build())
                 .user(u -> {
                     u.text(userMessage);
                     if (images != null && mimeTypes != null) {
@@ -145,55 +140,43 @@ public class ChatService {
                 });
         // temperature can be encoded in system prompt if needed
 
-        StringBuilder assistantBuffer = new StringBuilder();
-        return spec
-                .stream()
-                .content()
-                .doOnNext(assistantBuffer::append)
-                .doOnError(err -> persistAssistantError(conversationId, err))
-                .onErrorResume(err -> Flux.empty())
-                .doOnComplete(() -> persistAssistantCompletion(conversationId, assistantBuffer.toString()));
+        var request = spec;
+        return streamRegistry.start(placeholder.getStreamId(), ticket.run(() -> request.stream().content()),
+                checkpointer(conversationId, userMessage, placeholder.getId()));
     }
 
-    private boolean hasAnyUploadedDocs(Long conversationId) {
+    private PreparedTurn prepare(Long conversationId, String userMessage, String model, int imageCount,
+                                 GenerationAdmission.Ticket ticket) {
         try {
-            Path dir = Path.of("uploads", String.valueOf(conversationId));
-            if (!Files.isDirectory(dir)) return false;
-            try (Stream<Path> paths = Files.list(dir)) {
-                return paths.anyMatch(p -> {
-                    String name = p.getFileName().toString().toLowerCase();
-                    return name.endsWith(".pdf");
-                });
-            }
-        } catch (Exception ignored) {
-            return false;
+            return turnPreparation.prepare(conversationId, userMessage, model, imageCount, chatClient);
+        } catch (RuntimeException e) {
+            ticket.release();
+            throw e;
         }
     }
 
-    private void persistUserMessage(Long conversationId, String userMessage) {
-        Message user = new Message();
-        user.setConversationId(conversationId);
-        user.setRole("user");
-        user.setContent(userMessage);
-        messageRepository.save(user);
-    }
+    private ChatStreamListener checkpointer(Long conversationId, String userMessage, Long assistantId) {
+        return new ChatStreamListener() {
+            @Override
+            public void onCheckpoint(String content) {
+                messageWriter.update(assistantId, content, MessageStatus.STREAMING);
+            }
 
-    private void persistAssistantCompletion(Long conversationId, String content) {
-        Message assistant = new Message();
-        assistant.setConversationId(conversationId);
-        assistant.setRole("assistant");
-        assistant.setContent(content);
-        messageRepository.save(assistant);
-    }
+            @Override
+            public void onComplete(String content) {
+                // Only once the answer is committed; appendTurn itself does not touch the database
+                messageWriter.update(assistantId, content, MessageStatus.COMPLETE)
+                        .thenRun(() -> chatMemory.appendTurn(conversationId, assistantId, userMessage, content));
+            }
 
-    private void persistAssistantError(Long conversationId, Throwable err) {
-        Message failed = new Message();
-        failed.setConversationId(conversationId);
-        failed.setRole("assistant");
-        failed.setContent("[ERROR] " + (err != null ? err.getMessage() : "unknown error"));
-        messageRepository.save(failed);
+            @Override
+            public void onError(String content, Throwable err) {
+                String stored = content.isEmpty()
+                        ? "[ERROR] " + (err != null ? err.getMessage() : "unknown error")
+                        : content;
+                messageWriter.update(assistantId, stored, MessageStatus.FAILED);
+            }
+        };
     }
 
 }
-
-
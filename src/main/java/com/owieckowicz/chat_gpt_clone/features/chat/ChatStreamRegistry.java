@@ -0,0 +1,178 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs model output streams independently of the HTTP connection that started them.
+ * Every fragment becomes an SSE event with id {@code <streamId>:<seq>} and is kept in a replay buffer,
+ * so a client that reconnects with {@code Last-Event-ID} gets exactly the events it missed.
+ * Finished streams stay replayable for {@code chat.stream.retention}.
+ * <p>
+ * Model fragments are coalesced before they become events: the first one is sent at once to keep
+ * time-to-first-token low, later ones are grouped per {@code chat.stream.coalesce.window-ms}
+ * or {@code max-fragments}, whichever comes first.
+ */
+@Component
+@Slf4j
+public class ChatStreamRegistry {
+
+    private final Map<String, ChatStream> streams = new ConcurrentHashMap<>();
+    private final Duration retention;
+    private final long checkpointIntervalMs;
+    private final long coalesceWindowMs;
+    private final int coalesceMaxFragments;
+    private final Counter fragments;
+    private final Counter frames;
+
+    public ChatStreamRegistry(MeterRegistry meterRegistry,
+                              @Value("${chat.stream.retention:2m}") Duration retention,
+                              @Value("${chat.stream.checkpoint-interval-ms:1000}") long checkpointIntervalMs,
+                              @Value("${chat.stream.coalesce.window-ms:30}") long coalesceWindowMs,
+                              @Value("${chat.stream.coalesce.max-fragments:32}") int coalesceMaxFragments) {
+        this.retention = retention;
+        this.checkpointIntervalMs = checkpointIntervalMs;
+        this.coalesceWindowMs = coalesceWindowMs;
+        this.coalesceMaxFragments = Math.max(1, coalesceMaxFragments);
+        this.fragments = Counter.builder("chat.stream.fragments").register(meterRegistry);
+        this.frames = Counter.builder("chat.stream.frames").register(meterRegistry);
+    }
+
+    public String newStreamId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Starts consuming {@code content} right away and returns the events from the beginning.
+     */
+    public Flux<ServerSentEvent<String>> start(String streamId, Flux<String> content, ChatStreamListener listener) {
+        ChatStream stream = new ChatStream(streamId, listener);
+        streams.put(streamId, stream);
+        coalesce(content.doOnNext(f -> fragments.increment()))
+                .subscribe(stream::next, stream::error, stream::complete);
+        return stream.events(0);
+    }
+
+    /**
+     * Events after the given {@code Last-Event-ID}, or null if the stream is not known on this instance.
+     */
+    public Flux<ServerSentEvent<String>> resume(String streamId, String lastEventId) {
+        ChatStream stream = streams.get(streamId);
+        if (stream == null) return null;
+        return stream.events(parseSeq(streamId, lastEventId));
+    }
+
+    /**
+     * Passes the first fragment through immediately and batches the rest; a window of 0 disables batching.
+     */
+    private Flux<String> coalesce(Flux<String> content) {
+        if (coalesceWindowMs <= 0 || coalesceMaxFragments <= 1) return content;
+        Duration window = Duration.ofMillis(coalesceWindowMs);
+        return content.switchOnFirst((first, all) -> {
+            if (!first.hasValue()) return all;
+            return Flux.concat(
+                    Mono.just(first.get()),
+                    all.skip(1)
+                            .bufferTimeout(coalesceMaxFragments, window)
+                            .map(batch -> String.join("", batch)));
+        });
+    }
+
+    private static long parseSeq(String streamId, String lastEventId) {
+        if (lastEventId == null) return 0;
+        int sep = lastEventId.lastIndexOf(':');
+        if (sep < 0 || !lastEventId.substring(0, sep).equals(streamId)) return 0;
+        try {
+            return Long.parseLong(lastEventId.substring(sep + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Receives the accumulated output: periodically while streaming, then once at the end.
+     */
+    public interface ChatStreamListener {
+        ChatStreamListener NOOP = new ChatStreamListener() {};
+
+        default void onCheckpoint(String content) {}
+
+        default void onComplete(String content) {}
+
+        default void onError(String content, Throwable error) {}
+    }
+
+    private final class ChatStream {
+        private final String id;
+        private final ChatStreamListener listener;
+        private final Sinks.Many<ServerSentEvent<String>> sink = Sinks.many().replay().all();
+        private final StringBuilder content = new StringBuilder();
+        private long seq;
+        private long lastCheckpoint = System.nanoTime();
+
+        private ChatStream(String id, ChatStreamListener listener) {
+            this.id = id;
+            this.listener = listener;
+        }
+
+        Flux<ServerSentEvent<String>> events(long afterSeq) {
+            return sink.asFlux().filter(e -> seqOf(e) > afterSeq);
+        }
+
+        private synchronized void next(String fragment) {
+            if (fragment == null || fragment.isEmpty()) return;
+            content.append(fragment);
+            frames.increment();
+            seq++;
+            sink.tryEmitNext(ServerSentEvent.builder(fragment).id(id + ":" + seq).build());
+            long now = System.nanoTime();
+            if (now - lastCheckpoint >= checkpointIntervalMs * 1_000_000L) {
+                lastCheckpoint = now;
+                safely(() -> listener.onCheckpoint(content.toString()));
+            }
+        }
+
+        private synchronized void complete() {
+            safely(() -> listener.onComplete(content.toString()));
+            sink.tryEmitComplete();
+            expire();
+        }
+
+        private synchronized void error(Throwable err) {
+            log.warn("Chat stream {} failed", id, err);
+            safely(() -> listener.onError(content.toString(), err));
+            // Clients see the stream end, as before; the failure is recorded by the listener
+            sink.tryEmitComplete();
+            expire();
+        }
+
+        private void safely(Runnable callback) {
+            try {
+                callback.run();
+            } catch (Exception e) {
+                log.warn("Chat stream {} listener failed", id, e);
+            }
+        }
+
+        private void expire() {
+            Mono.delay(retention).subscribe(v -> streams.remove(id, this));
+        }
+
+        private long seqOf(ServerSentEvent<String> event) {
+            String eventId = event.id();
+            return eventId == null ? 0 : Long.parseLong(eventId.substring(eventId.lastIndexOf(':') + 1));
+        }
+    }
+}
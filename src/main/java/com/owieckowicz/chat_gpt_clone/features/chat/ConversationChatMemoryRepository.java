@@ -0,0 +1,158 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import com.owieckowicz.chat_gpt_clone.common.cache.LruCache;
+import com.owieckowicz.chat_gpt_clone.features.conversation.ConversationChangedEvent;
+import com.owieckowicz.chat_gpt_clone.features.message.MessageRepository;
+import com.owieckowicz.chat_gpt_clone.features.message.MessageStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Chat memory backed by the {@code messages} table, which {@link ChatService} already writes.
+ * Recent conversation windows are kept in a bounded LRU; a miss hydrates the last messages
+ * of the conversation from the database. Each cached window remembers the last settled message id
+ * it reflects and is only served while that still matches the database, so a window cached on one
+ * instance is reloaded once another instance has added to the conversation. A finished turn is
+ * appended to the cached window rather than reloaded.
+ */
+@Component
+public class ConversationChatMemoryRepository implements ChatMemoryRepository {
+
+    private static final String ERROR_PREFIX = "[ERROR]";
+
+    private final MessageRepository messageRepository;
+    private final int windowSize;
+    private final LruCache<Long, Window> windows;
+
+    public ConversationChatMemoryRepository(MessageRepository messageRepository,
+                                            MeterRegistry meterRegistry,
+                                            @Value("${chat.memory.window-size:20}") int windowSize,
+                                            @Value("${chat.memory.cache.ttl:10m}") Duration ttl,
+                                            @Value("${chat.memory.cache.max-chars:4000000}") long maxChars) {
+        this.messageRepository = messageRepository;
+        this.windowSize = Math.max(1, windowSize);
+        this.windows = LruCache.<Long, Window>weighted(maxChars, w -> chars(w.messages()), ttl)
+                .bindTo(meterRegistry, "chat.memory");
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        return messageRepository.findConversationIds().stream().map(String::valueOf).toList();
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        Long id = parseId(conversationId);
+        return id == null ? List.of() : history(id, Long.MAX_VALUE);
+    }
+
+    /**
+     * The conversation's window as it stood before message {@code beforeId}, so a turn that has
+     * already stored its user message does not find it in its own history.
+     */
+    public List<Message> history(Long conversationId, Long beforeId) {
+        // Read before hydrating, so a write racing with the load makes the next read reload
+        Long lastId = messageRepository.findLastSettledId(conversationId, beforeId);
+        Window cached = windows.get(conversationId);
+        if (cached != null && Objects.equals(cached.lastId(), lastId)) return cached.messages();
+        List<Message> window = hydrate(conversationId, beforeId);
+        windows.put(conversationId, new Window(window, lastId));
+        return window;
+    }
+
+    /**
+     * Messages are persisted by {@link ChatService}, and only the database knows which of them
+     * these are, so the cached window is dropped and reloaded on the next read.
+     */
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        Long id = parseId(conversationId);
+        if (id != null) windows.invalidate(id);
+    }
+
+    /**
+     * Adds a finished turn to the cached window without reading the database. The window is stamped
+     * with the answer's own id, which is the last settled id once its COMPLETE update is committed;
+     * a read before that reloads the window.
+     */
+    public void appendTurn(Long conversationId, Long assistantId, String userMessage, String answer) {
+        Window cached = windows.get(conversationId);
+        if (cached == null) return;
+        // A later turn already settled; its window is not ours to extend
+        if (cached.lastId() != null && cached.lastId() >= assistantId) return;
+        List<Message> window = new ArrayList<>(cached.messages());
+        window.add(new UserMessage(userMessage));
+        window.add(new AssistantMessage(answer));
+        int from = Math.max(0, window.size() - windowSize);
+        windows.put(conversationId, new Window(List.copyOf(window.subList(from, window.size())), assistantId));
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        Long id = parseId(conversationId);
+        if (id != null) windows.invalidate(id);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConversationChanged(ConversationChangedEvent event) {
+        if (event.deleted()) windows.invalidate(event.conversationId());
+    }
+
+    private List<Message> hydrate(Long conversationId, Long beforeId) {
+        List<com.owieckowicz.chat_gpt_clone.features.message.Message> rows = new ArrayList<>(
+                messageRepository.findByConversationIdAndIdLessThanOrderByCreatedAtDescIdDesc(
+                        conversationId, beforeId, PageRequest.of(0, windowSize + 1)));
+        Collections.reverse(rows);
+        List<Message> window = new ArrayList<>(rows.size());
+        for (var row : rows) {
+            String role = row.getRole() == null ? "" : row.getRole();
+            String content = row.getContent();
+            // Unfinished or failed answers are not history, and neither are the questions they answer
+            if (content == null || content.startsWith(ERROR_PREFIX)
+                    || row.getStatus() == MessageStatus.STREAMING || row.getStatus() == MessageStatus.FAILED) {
+                if (role.equals("assistant") && !window.isEmpty() && window.get(window.size() - 1) instanceof UserMessage) {
+                    window.remove(window.size() - 1);
+                }
+                continue;
+            }
+            switch (role) {
+                case "user" -> window.add(new UserMessage(content));
+                case "assistant" -> window.add(new AssistantMessage(content));
+                case "system" -> window.add(new SystemMessage(content));
+                default -> { }
+            }
+        }
+        int from = Math.max(0, window.size() - windowSize);
+        return List.copyOf(window.subList(from, window.size()));
+    }
+
+    private static long chars(List<Message> window) {
+        long total = 0;
+        for (Message m : window) total += m.getText() == null ? 0 : m.getText().length();
+        return total;
+    }
+
+    private static Long parseId(String conversationId) {
+        try {
+            return Long.valueOf(conversationId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private record Window(List<Message> messages, Long lastId) {}
+}
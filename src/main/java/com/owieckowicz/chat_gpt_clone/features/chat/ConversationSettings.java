@@ -9,7 +9,8 @@ public record ConversationSettings(
         boolean webAccessEnabled,
         int searchTopK,
         boolean ragEnabled,
-        int ragTopK
+        int ragTopK,
+        SearchQueryMode searchQueryMode
 ) {}
 
 
@@ -2,46 +2,148 @@ package com.owieckowicz.chat_gpt_clone.features.chat;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.owieckowicz.chat_gpt_clone.common.cache.LruCache;
+import com.owieckowicz.chat_gpt_clone.features.conversation.ConversationChangedEvent;
 import com.owieckowicz.chat_gpt_clone.features.conversation.ConversationRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parsed conversation settings, cached per conversation. Settings are validated when written,
+ * and the cache entry is dropped once the change is committed.
+ */
 @Service
 public class ConversationSettingsService {
     private static final int MIN_TOPK = 1;
     private static final int MAX_TOPK = 5;
+    private static final int MAX_RAG_TOPK = 10;
+    private static final double MAX_TEMPERATURE = 2.0;
+
+    private static final ConversationSettings DEFAULTS =
+            new ConversationSettings(null, null, false, 3, false, 5, SearchQueryMode.LOCAL);
 
     private final ConversationRepository conversationRepository;
     private final ObjectMapper objectMapper;
+    private final LruCache<Long, ConversationSettings> cache;
+    // Bumped on every invalidation so a load racing with an update does not cache the old value
+    private final AtomicLong generation = new AtomicLong();
 
-    public ConversationSettingsService(ConversationRepository conversationRepository, ObjectMapper objectMapper) {
+    public ConversationSettingsService(ConversationRepository conversationRepository,
+                                       ObjectMapper objectMapper,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${chat.settings.cache.ttl:30m}") Duration ttl,
+                                       @Value("${chat.settings.cache.max-entries:10000}") int maxEntries) {
         this.conversationRepository = conversationRepository;
         this.objectMapper = objectMapper;
+        this.cache = LruCache.<Long, ConversationSettings>ofSize(maxEntries, ttl).bindTo(meterRegistry, "conversation.settings");
+    }
+
+    public ConversationSettings defaults() {
+        return DEFAULTS;
     }
 
     public ConversationSettings load(Long conversationId) {
+        ConversationSettings cached = cache.get(conversationId);
+        if (cached != null) return cached;
+
+        long seen = generation.get();
+        String json = conversationRepository.findSettingsById(conversationId).orElse(null);
+        ConversationSettings settings = read(json, false);
+        if (generation.get() == seen) cache.put(conversationId, settings);
+        return settings;
+    }
+
+    /**
+     * Parses a settings JSON object. Missing fields take their defaults, unknown fields are ignored.
+     *
+     * @throws IllegalArgumentException if the JSON is malformed or a known field has an invalid value
+     */
+    public ConversationSettings parse(String json) {
+        return read(json, true);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConversationChanged(ConversationChangedEvent event) {
+        generation.incrementAndGet();
+        cache.invalidate(event.conversationId());
+    }
+
+    /**
+     * Strict reads reject bad values; lenient reads (rows stored before validation existed)
+     * clamp numbers and fall back to defaults for anything else.
+     */
+    private ConversationSettings read(String json, boolean strict) {
+        if (json == null || json.isBlank()) return DEFAULTS;
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(json);
+        } catch (Exception e) {
+            return reject(strict, "settings is not valid JSON", DEFAULTS);
+        }
+        if (node == null || node.isNull()) return DEFAULTS;
+        if (!node.isObject()) return reject(strict, "settings must be a JSON object", DEFAULTS);
+
         Double temperature = null;
+        JsonNode t = node.get("temperature");
+        if (t != null && !t.isNull()) {
+            if (!t.isNumber()) {
+                temperature = reject(strict, "temperature must be a number", null);
+            } else if (t.asDouble() < 0 || t.asDouble() > MAX_TEMPERATURE) {
+                temperature = reject(strict, "temperature must be between 0 and " + MAX_TEMPERATURE,
+                        Math.max(0, Math.min(MAX_TEMPERATURE, t.asDouble())));
+            } else {
+                temperature = t.asDouble();
+            }
+        }
         String systemPrompt = null;
-        boolean webAccessEnabled = false;
-        int searchTopK = 3;
-        boolean ragEnabled = false;
-        int ragTopK = 5;
-        try {
-            var conv = conversationRepository.findById(conversationId).orElse(null);
-            if (conv != null && conv.getSettings() != null && !conv.getSettings().isBlank()) {
-                JsonNode node = objectMapper.readTree(conv.getSettings());
-                if (node.hasNonNull("temperature")) temperature = node.get("temperature").asDouble();
-                if (node.hasNonNull("systemPrompt")) systemPrompt = node.get("systemPrompt").asText();
-                if (node.hasNonNull("webAccessEnabled")) webAccessEnabled = node.get("webAccessEnabled").asBoolean(false);
-                if (node.hasNonNull("searchTopK")) searchTopK = node.get("searchTopK").asInt(3);
-                if (node.hasNonNull("ragEnabled")) ragEnabled = node.get("ragEnabled").asBoolean(false);
-                if (node.hasNonNull("ragTopK")) ragTopK = node.get("ragTopK").asInt(5);
+        JsonNode p = node.get("systemPrompt");
+        if (p != null && !p.isNull()) {
+            systemPrompt = p.isTextual() ? p.asText() : reject(strict, "systemPrompt must be a string", p.asText());
+        }
+        boolean webAccessEnabled = readBoolean(node, "webAccessEnabled", DEFAULTS.webAccessEnabled(), strict);
+        int searchTopK = readInt(node, "searchTopK", DEFAULTS.searchTopK(), MIN_TOPK, MAX_TOPK, strict);
+        boolean ragEnabled = readBoolean(node, "ragEnabled", DEFAULTS.ragEnabled(), strict);
+        int ragTopK = readInt(node, "ragTopK", DEFAULTS.ragTopK(), 1, MAX_RAG_TOPK, strict);
+        SearchQueryMode searchQueryMode = DEFAULTS.searchQueryMode();
+        JsonNode m = node.get("searchQueryMode");
+        if (m != null && !m.isNull()) {
+            try {
+                searchQueryMode = SearchQueryMode.valueOf(m.asText().trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                searchQueryMode = reject(strict, "searchQueryMode must be one of LOCAL, LLM", DEFAULTS.searchQueryMode());
             }
-        } catch (Exception ignored) {
         }
-        int clampedTopK = Math.max(MIN_TOPK, Math.min(MAX_TOPK, searchTopK <= 0 ? 3 : searchTopK));
-        int clampedRagTopK = Math.max(1, Math.min(10, ragTopK <= 0 ? 5 : ragTopK));
-        return new ConversationSettings(temperature, systemPrompt, webAccessEnabled, clampedTopK, ragEnabled, clampedRagTopK);
+        return new ConversationSettings(temperature, systemPrompt, webAccessEnabled, searchTopK, ragEnabled, ragTopK, searchQueryMode);
     }
-}
 
+    private static boolean readBoolean(JsonNode node, String field, boolean fallback, boolean strict) {
+        JsonNode value = node.get(field);
+        if (value == null || value.isNull()) return fallback;
+        if (value.isBoolean()) return value.asBoolean();
+        return reject(strict, field + " must be a boolean", value.asBoolean(fallback));
+    }
+
+    private static int readInt(JsonNode node, String field, int fallback, int min, int max, boolean strict) {
+        JsonNode value = node.get(field);
+        if (value == null || value.isNull()) return fallback;
+        String error = field + " must be an integer between " + min + " and " + max;
+        if (!value.isIntegralNumber() || !value.canConvertToInt()) {
+            int lenient = value.asInt(fallback);
+            return reject(strict, error, lenient <= 0 ? fallback : Math.min(max, lenient));
+        }
+        int v = value.asInt();
+        if (v < min || v > max) return reject(strict, error, v <= 0 ? fallback : Math.min(max, v));
+        return v;
+    }
 
+    private static <T> T reject(boolean strict, String message, T lenientValue) {
+        if (strict) throw new IllegalArgumentException(message);
+        return lenientValue;
+    }
+}
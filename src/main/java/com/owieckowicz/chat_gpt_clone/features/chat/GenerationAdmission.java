@@ -0,0 +1,183 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Admission control in front of the chat model. Each model has its own lane with a concurrency
+ * limit and a bounded wait queue. Waiting requests are granted round-robin across conversations,
+ * so one busy conversation cannot starve the others. A full queue is rejected up front with 429.
+ */
+@Component
+public class GenerationAdmission {
+
+    private final AdmissionProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    public GenerationAdmission(AdmissionProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Takes a place in the model's queue, or throws {@link AdmissionRejectedException} if it is full.
+     * The ticket must be used with {@link Ticket#run} or {@link Ticket#release()}d.
+     */
+    public Ticket enqueue(String model, String fairnessKey) {
+        Ticket ticket = lanes.computeIfAbsent(model, this::newLane).enqueue(fairnessKey);
+        if (ticket.holding) ticket.signal();
+        return ticket;
+    }
+
+    private Lane newLane(String model) {
+        return new Lane(model, properties.limitFor(model));
+    }
+
+    public final class Ticket {
+        private final Lane lane;
+        private final String key;
+        private final Sinks.One<Boolean> granted = Sinks.one();
+        private final long queuedAt = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean holding;
+        private long grantedAt;
+
+        private Ticket(Lane lane, String key) {
+            this.lane = lane;
+            this.key = key;
+        }
+
+        /**
+         * Waits for a slot without blocking a thread, then streams the generation and frees the slot when it ends.
+         */
+        public Flux<String> run(Supplier<Flux<String>> generation) {
+            return granted.asMono()
+                    .timeout(properties.maxWait())
+                    .onErrorMap(TimeoutException.class, e -> new ResponseStatusException(
+                            HttpStatus.SERVICE_UNAVAILABLE, "Timed out waiting for model " + lane.model))
+                    .thenMany(Flux.defer(generation))
+                    .doFinally(signal -> release());
+        }
+
+        /**
+         * Gives up the place in the queue or the slot; safe to call more than once.
+         */
+        public void release() {
+            if (!released.compareAndSet(false, true)) return;
+            // Wake the next waiters outside the lane lock; they start generating on this thread
+            for (Ticket next : lane.release(this)) next.signal();
+        }
+
+        private void grant() {
+            holding = true;
+            grantedAt = System.nanoTime();
+            lane.waitTimer.record(grantedAt - queuedAt, TimeUnit.NANOSECONDS);
+        }
+
+        private void signal() {
+            granted.tryEmitValue(Boolean.TRUE);
+        }
+    }
+
+    private final class Lane {
+        private final String model;
+        private final int maxConcurrent;
+        private final int maxQueue;
+        // Waiting tickets per conversation, in the order conversations get their next turn
+        private final LinkedHashMap<String, ArrayDeque<Ticket>> waiting = new LinkedHashMap<>();
+        private int queued;
+        private int active;
+        private double avgHoldSeconds = 10;
+        private final Timer waitTimer;
+        private final Counter rejected;
+
+        private Lane(String model, AdmissionProperties.ModelLimit limit) {
+            this.model = model;
+            this.maxConcurrent = Math.max(1, limit.maxConcurrent());
+            this.maxQueue = Math.max(0, limit.maxQueue());
+            this.waitTimer = Timer.builder("chat.admission.wait").tag("model", model).register(meterRegistry);
+            this.rejected = Counter.builder("chat.admission.rejected").tag("model", model).register(meterRegistry);
+            Gauge.builder("chat.admission.queue", this, l -> l.snapshot(false)).tag("model", model).register(meterRegistry);
+            Gauge.builder("chat.admission.active", this, l -> l.snapshot(true)).tag("model", model).register(meterRegistry);
+        }
+
+        private synchronized Ticket enqueue(String key) {
+            Ticket ticket = new Ticket(this, key);
+            if (active < maxConcurrent && queued == 0) {
+                active++;
+                ticket.grant();
+                return ticket;
+            }
+            if (queued >= maxQueue) {
+                rejected.increment();
+                throw new AdmissionRejectedException(model, retryAfterSeconds());
+            }
+            waiting.computeIfAbsent(key, k -> new ArrayDeque<>()).add(ticket);
+            queued++;
+            return ticket;
+        }
+
+        private synchronized List<Ticket> release(Ticket ticket) {
+            if (ticket.holding) {
+                active--;
+                double held = (System.nanoTime() - ticket.grantedAt) / 1e9;
+                avgHoldSeconds = 0.8 * avgHoldSeconds + 0.2 * held;
+            } else {
+                ArrayDeque<Ticket> queue = waiting.get(ticket.key);
+                if (queue != null && queue.remove(ticket)) {
+                    queued--;
+                    if (queue.isEmpty()) waiting.remove(ticket.key);
+                }
+            }
+            return grantNext();
+        }
+
+        private List<Ticket> grantNext() {
+            List<Ticket> granted = new ArrayList<>();
+            while (active < maxConcurrent && queued > 0) {
+                Iterator<Map.Entry<String, ArrayDeque<Ticket>>> it = waiting.entrySet().iterator();
+                Map.Entry<String, ArrayDeque<Ticket>> head = it.next();
+                String key = head.getKey();
+                ArrayDeque<Ticket> queue = head.getValue();
+                Ticket next = queue.poll();
+                it.remove();
+                // The conversation goes to the back of the line for its next request
+                if (!queue.isEmpty()) waiting.put(key, queue);
+                queued--;
+                active++;
+                next.grant();
+                granted.add(next);
+            }
+            return granted;
+        }
+
+        private long retryAfterSeconds() {
+            double estimate = avgHoldSeconds * (queued + 1) / maxConcurrent;
+            return Math.max(1, Math.min(60, (long) Math.ceil(estimate)));
+        }
+
+        private synchronized int snapshot(boolean activeCount) {
+            return activeCount ? active : queued;
+        }
+    }
+}
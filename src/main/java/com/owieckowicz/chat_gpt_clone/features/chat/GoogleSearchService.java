@@ -2,10 +2,14 @@ package com.owieckowicz.chat_gpt_clone.features.chat;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.owieckowicz.chat_gpt_clone.common.cache.LruCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
@@ -15,6 +19,10 @@ import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Slf4j
@@ -25,18 +33,30 @@ public class GoogleSearchService {
     private final String apiKey;
     private final String cx;
     private final long timeoutMs;
+    private final Duration negativeTtl;
+    private final LruCache<SearchKey, List<WebSnippet>> cache;
+    private final ConcurrentHashMap<SearchKey, CompletableFuture<List<WebSnippet>>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
 
     public GoogleSearchService(
             @Value("${google.cse.api-key:}") String apiKey,
             @Value("${google.cse.cx:}") String cx,
-            @Value("${google.cse.timeout-ms:8000}") long timeoutMs
+            @Value("${google.cse.timeout-ms:8000}") long timeoutMs,
+            @Value("${google.cse.cache.ttl:1h}") Duration ttl,
+            @Value("${google.cse.cache.negative-ttl:1m}") Duration negativeTtl,
+            @Value("${google.cse.cache.max-entries:2000}") int maxEntries,
+            MeterRegistry meterRegistry
     ) {
         this.apiKey = apiKey;
         this.cx = cx;
         this.timeoutMs = timeoutMs;
+        this.negativeTtl = negativeTtl;
         this.http = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofMillis(timeoutMs))
                 .build();
+        this.cache = LruCache.<SearchKey, List<WebSnippet>>ofSize(maxEntries, ttl)
+                .bindTo(meterRegistry, "google.search");
+        this.coalesced = meterRegistry.counter("google.search.coalesced");
     }
 
     public boolean isConfigured() {
@@ -46,37 +66,92 @@ public class GoogleSearchService {
     public List<WebSnippet> search(String query, int topK) {
 
         if (!isConfigured()) return List.of();
+        if (query == null || query.isBlank()) return List.of();
         int num = Math.max(1, Math.min(10, topK));
+        SearchKey key = new SearchKey(normalize(query), num);
+
+        List<WebSnippet> cached = cache.get(key);
+        if (cached != null) return cached;
+
+        // Single-flight: concurrent identical queries share one outbound request
+        CompletableFuture<List<WebSnippet>> mine = new CompletableFuture<>();
+        CompletableFuture<List<WebSnippet>> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return existing.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return List.of();
+            } catch (Exception e) {
+                return List.of();
+            }
+        }
 
         try {
-            String url = "https://www.googleapis.com/customsearch/v1"
-                    + "?key=" + URLEncoder.encode(apiKey, StandardCharsets.UTF_8)
-                    + "&cx=" + URLEncoder.encode(cx, StandardCharsets.UTF_8)
-                    + "&q=" + URLEncoder.encode(query, StandardCharsets.UTF_8)
-                    + "&num=" + num;
-            HttpRequest req = HttpRequest.newBuilder(URI.create(url))
-                    .timeout(Duration.ofMillis(timeoutMs))
-                    .GET()
-                    .build();
-            log.info("Searching in google browser");
-            HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
-            if (resp.statusCode() != 200) return List.of();
-            JsonNode res = MAPPER.readTree(resp.body());
-            if (res == null || !res.has("items") || res.get("items").isEmpty()) return List.of();
-
-            List<WebSnippet> out = new ArrayList<>();
-            for (JsonNode item : res.get("items")) {
-                String title = item.path("title").asText("");
-                String link = item.path("link").asText("");
-                String snippet = item.path("snippet").asText("");
-                if (link == null || link.isBlank()) continue;
-                out.add(new WebSnippet(title, link, snippet));
+            List<WebSnippet> result = fetch(key.query(), num);
+            if (result.isEmpty()) {
+                // Error statuses and empty results are kept briefly so a failing API is not hammered
+                cache.put(key, result, negativeTtl);
+            } else {
+                cache.put(key, result);
             }
-            return out;
+            mine.complete(result);
+            return result;
+        } catch (InterruptedException e) {
+            // Cut off by the caller's deadline: nothing is known about the query, so nothing is cached
+            Thread.currentThread().interrupt();
+            mine.completeExceptionally(e);
+            return List.of();
         } catch (Exception e) {
+            // Timeouts and network errors are not cached either; the next request tries again
+            log.warn("Google search failed: {}", e.toString());
+            mine.completeExceptionally(e);
             return List.of();
+        } finally {
+            inFlight.remove(key, mine);
         }
     }
+
+    /**
+     * Calls the Custom Search API. A status other than 200 or a response without items yields an
+     * empty list; network failures, timeouts and interrupts are thrown.
+     */
+    private List<WebSnippet> fetch(String query, int num) throws IOException, InterruptedException {
+        String url = "https://www.googleapis.com/customsearch/v1"
+                + "?key=" + URLEncoder.encode(apiKey, StandardCharsets.UTF_8)
+                + "&cx=" + URLEncoder.encode(cx, StandardCharsets.UTF_8)
+                + "&q=" + URLEncoder.encode(query, StandardCharsets.UTF_8)
+                + "&num=" + num;
+        HttpRequest req = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .GET()
+                .build();
+        log.info("Searching in google browser");
+        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
+        if (resp.statusCode() != 200) {
+            log.warn("Google search returned status {}", resp.statusCode());
+            return List.of();
+        }
+        JsonNode res = MAPPER.readTree(resp.body());
+        if (res == null || !res.has("items") || res.get("items").isEmpty()) return List.of();
+
+        List<WebSnippet> out = new ArrayList<>();
+        for (JsonNode item : res.get("items")) {
+            String title = item.path("title").asText("");
+            String link = item.path("link").asText("");
+            String snippet = item.path("snippet").asText("");
+            if (link == null || link.isBlank()) continue;
+            out.add(new WebSnippet(title, link, snippet));
+        }
+        return List.copyOf(out);
+    }
+
+    private static String normalize(String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private record SearchKey(String query, int num) {}
 }
 
 
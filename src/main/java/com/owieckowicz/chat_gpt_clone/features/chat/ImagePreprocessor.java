@@ -0,0 +1,201 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import com.owieckowicz.chat_gpt_clone.common.cache.LruCache;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+
+/**
+ * Prepares uploaded images for the vision model. Uploads are spooled to a temp file, decoded with
+ * subsampling where possible, scaled to fit {@code chat.images.max-dimension} and re-encoded as JPEG.
+ * Results are cached by the SHA-256 of the upload and its declared media type, so the same picture
+ * is only processed once and a pass-through keeps the media type it was uploaded with.
+ * Images that cannot be decoded are passed through unchanged.
+ */
+@Component
+@Slf4j
+public class ImagePreprocessor {
+
+    private final int maxDimension;
+    private final float quality;
+    private final Path tempDir;
+    private final LruCache<String, ProcessedImage> cache;
+    private final DistributionSummary bytesSaved;
+    private final DistributionSummary pixelsSaved;
+
+    public ImagePreprocessor(MeterRegistry meterRegistry,
+                             @Value("${chat.images.max-dimension:1024}") int maxDimension,
+                             @Value("${chat.images.quality:0.85}") float quality,
+                             @Value("${chat.images.temp-dir:${java.io.tmpdir}}") String tempDir,
+                             @Value("${chat.images.cache.ttl:30m}") Duration ttl,
+                             @Value("${chat.images.cache.max-bytes:67108864}") long maxBytes) {
+        this.maxDimension = Math.max(1, maxDimension);
+        this.quality = Math.max(0.05f, Math.min(1f, quality));
+        this.tempDir = Path.of(tempDir);
+        this.cache = LruCache.<String, ProcessedImage>weighted(maxBytes, img -> img.data().length, ttl)
+                .bindTo(meterRegistry, "chat.images");
+        this.bytesSaved = DistributionSummary.builder("chat.images.saved.bytes").baseUnit("bytes").register(meterRegistry);
+        this.pixelsSaved = DistributionSummary.builder("chat.images.saved.pixels").register(meterRegistry);
+    }
+
+    public ProcessedImage process(MultipartFile file) throws IOException {
+        Files.createDirectories(tempDir);
+        Path spooled = Files.createTempFile(tempDir, "upload-", ".img");
+        try {
+            file.transferTo(spooled);
+            MediaType mediaType = mediaTypeOf(file);
+            String key = sha256(spooled) + ' ' + mediaType;
+            ProcessedImage cached = cache.get(key);
+            if (cached != null) return cached;
+
+            ProcessedImage processed = process(spooled, mediaType);
+            cache.put(key, processed);
+            return processed;
+        } finally {
+            Files.deleteIfExists(spooled);
+        }
+    }
+
+    private ProcessedImage process(Path source, MediaType mediaType) throws IOException {
+        long sourceBytes = Files.size(source);
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) return passThrough(source, mediaType);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (Math.max(width, height) <= maxDimension && isModelFormat(mediaType)) {
+                    // Already small enough; re-encoding would only lose quality
+                    return passThrough(source, mediaType, width, height);
+                }
+
+                // Decode at a fraction of the resolution so the full image never sits on the heap
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = subsampleStep(width, height, maxDimension);
+                if (step > 1) param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+
+                BufferedImage scaled = scale(decoded);
+                byte[] jpeg = encodeJpeg(scaled);
+                if (jpeg.length >= sourceBytes && Math.max(width, height) <= maxDimension) {
+                    return passThrough(source, mediaType, width, height);
+                }
+                record(sourceBytes, jpeg.length, (long) width * height, (long) scaled.getWidth() * scaled.getHeight());
+                return new ProcessedImage(jpeg, MediaType.IMAGE_JPEG, scaled.getWidth(), scaled.getHeight());
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not decode image, sending it unchanged", e);
+            return passThrough(source, mediaType);
+        }
+    }
+
+    /**
+     * The largest subsampling step that keeps the long side at or above {@code maxDimension}, so the
+     * final scale is always a downscale.
+     */
+    static int subsampleStep(int width, int height, int maxDimension) {
+        return Math.max(1, Math.max(width, height) / maxDimension);
+    }
+
+    private BufferedImage scale(BufferedImage image) {
+        double ratio = Math.min(1.0, (double) maxDimension / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        // JPEG has no alpha; transparent areas become white
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private void record(long bytesBefore, long bytesAfter, long pixelsBefore, long pixelsAfter) {
+        bytesSaved.record(Math.max(0, bytesBefore - bytesAfter));
+        pixelsSaved.record(Math.max(0, pixelsBefore - pixelsAfter));
+        log.debug("Image reduced from {} to {} bytes, {} to {} pixels", bytesBefore, bytesAfter, pixelsBefore, pixelsAfter);
+    }
+
+    private ProcessedImage passThrough(Path source, MediaType mediaType) throws IOException {
+        return passThrough(source, mediaType, 0, 0);
+    }
+
+    private ProcessedImage passThrough(Path source, MediaType mediaType, int width, int height) throws IOException {
+        bytesSaved.record(0);
+        pixelsSaved.record(0);
+        return new ProcessedImage(Files.readAllBytes(source), mediaType, width, height);
+    }
+
+    private static boolean isModelFormat(MediaType mediaType) {
+        return MediaType.IMAGE_JPEG.equalsTypeAndSubtype(mediaType) || MediaType.IMAGE_PNG.equalsTypeAndSubtype(mediaType);
+    }
+
+    private static MediaType mediaTypeOf(MultipartFile file) {
+        String type = file.getContentType();
+        if (type != null) return MediaType.parseMediaType(type);
+        return MediaTypeFactory.getMediaType(file.getOriginalFilename()).orElse(MediaType.IMAGE_JPEG);
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try (DigestInputStream in = new DigestInputStream(Files.newInputStream(file), MessageDigest.getInstance("SHA-256"))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return HexFormat.of().formatHex(in.getMessageDigest().digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds a search query locally: drops stopwords and filler, weights the remaining terms
+ * and keeps the best 3 to 10 of them in their original order.
+ */
+@Component
+public class KeywordSearchQueryStrategy implements SearchQueryStrategy {
+    private static final int MIN_WORDS = 3;
+    private static final int MAX_WORDS = 10;
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}][\\p{L}\\p{N}+#._'-]*");
+
+    private static final Set<String> STOPWORDS = Set.of(
+            "a", "about", "above", "after", "again", "against", "all", "also", "am", "an", "and", "any", "are",
+            "as", "at", "be", "because", "been", "before", "being", "below", "between", "both", "but", "by",
+            "can", "could", "did", "do", "does", "doing", "down", "during", "each", "else", "ever", "few", "for",
+            "from", "further", "get", "got", "had", "has", "have", "having", "he", "her", "here", "hers", "him",
+            "his", "how", "i", "i'm", "if", "in", "into", "is", "it", "it's", "its", "just", "let", "like", "me",
+            "might", "more", "most", "much", "must", "my", "no", "nor", "not", "now", "of", "off", "on", "once",
+            "only", "or", "other", "our", "ours", "out", "over", "own", "same", "shall", "she", "should", "so",
+            "some", "such", "than", "that", "the", "their", "them", "then", "there", "these", "they", "this",
+            "those", "through", "to", "too", "under", "until", "up", "us", "very", "was", "we", "were", "what",
+            "when", "where", "which", "while", "who", "whom", "why", "will", "with", "would", "you", "your",
+            "yours",
+            // conversational filler
+            "please", "thanks", "thank", "hi", "hello", "hey", "tell", "explain", "know", "want", "need",
+            "give", "show", "find", "help", "anyone", "someone", "something", "thing", "things", "really",
+            "maybe", "kind", "sort", "way", "question", "answer", "look", "search", "google", "web", "online"
+    );
+
+    @Override
+    public SearchQueryMode mode() {
+        return SearchQueryMode.LOCAL;
+    }
+
+    @Override
+    public String craft(String userMessage, ChatClient chatClient) {
+        if (userMessage == null || userMessage.isBlank()) return null;
+
+        List<String> words = new ArrayList<>();
+        Matcher m = WORD.matcher(userMessage);
+        while (m.find()) {
+            String w = m.group().replaceAll("[._'-]+$", "");
+            if (!w.isEmpty()) words.add(w);
+        }
+        if (words.isEmpty()) return null;
+
+        Map<String, Term> terms = new LinkedHashMap<>();
+        for (int i = 0; i < words.size(); i++) {
+            String w = words.get(i);
+            String lower = w.toLowerCase(Locale.ROOT);
+            if (STOPWORDS.contains(lower)) continue;
+            if (lower.length() < 2 && !Character.isDigit(lower.charAt(0))) continue;
+            Term t = terms.computeIfAbsent(lower, k -> new Term(w, words.size()));
+            t.count++;
+            t.firstIndex = Math.min(t.firstIndex, i);
+            // Capitalized words that don't start the message are likely names or products
+            if (i > 0 && Character.isUpperCase(w.charAt(0))) t.proper = true;
+        }
+
+        List<Term> ranked = new ArrayList<>(terms.values());
+        int n = words.size();
+        ranked.sort(Comparator.comparingDouble((Term t) -> -t.score(n)));
+        List<Term> picked = new ArrayList<>(ranked.subList(0, Math.min(MAX_WORDS, ranked.size())));
+
+        List<String> out = new ArrayList<>();
+        if (picked.size() >= MIN_WORDS) {
+            picked.sort(Comparator.comparingInt(t -> t.firstIndex));
+            for (Term t : picked) out.add(t.text);
+        } else {
+            // Too few content words: a short literal query searches better than one or two keywords
+            for (int i = 0; i < Math.min(MAX_WORDS, words.size()); i++) out.add(words.get(i));
+        }
+
+        String query = String.join(" ", out).trim();
+        if (query.length() > 160) query = query.substring(0, 160).trim();
+        return query.length() < 3 ? null : query;
+    }
+
+    private static final class Term {
+        final String text;
+        int count;
+        int firstIndex;
+        boolean proper;
+
+        Term(String text, int firstIndex) {
+            this.text = text;
+            this.firstIndex = firstIndex;
+        }
+
+        double score(int totalWords) {
+            double weight = count * (1.0 + Math.log(text.length()));
+            if (proper) weight *= 1.5;
+            if (text.chars().anyMatch(Character::isDigit)) weight *= 1.3;
+            if (text.chars().anyMatch(c -> c == '+' || c == '#' || c == '.')) weight *= 1.2;
+            // Slight preference for terms from the start of the message, where the topic usually is
+            return weight * (1.0 + 0.25 * (1.0 - (double) firstIndex / Math.max(1, totalWords)));
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import com.owieckowicz.chat_gpt_clone.features.message.Message;
+
+/**
+ * A turn ready for generation: the stored assistant placeholder and the prompt to send.
+ */
+public record PreparedTurn(Message placeholder, AssembledPrompt prompt) {}
@@ -0,0 +1,14 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+
+/**
+ * An uploaded image as it is sent to the vision model.
+ */
+public record ProcessedImage(byte[] data, MediaType mediaType, int width, int height) {
+
+    public ByteArrayResource resource() {
+        return new ByteArrayResource(data);
+    }
+}
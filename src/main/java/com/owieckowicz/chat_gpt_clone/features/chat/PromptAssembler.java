@@ -0,0 +1,236 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fits system prompt, history, RAG chunks and web pages into the model's context window.
+ * System prompt and user message are always kept; the other sections get the remaining budget
+ * in priority order, each capped at its share first, then sharing whatever is left.
+ * History is trimmed from the oldest message, RAG chunks are dropped whole and the last
+ * web page that does not fit is cut.
+ */
+@Component
+@Slf4j
+public class PromptAssembler {
+    // Role markers and separators the chat template adds around each message
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private static final String RAG_HEADER = """
+            Context information from the user's documents is below, surrounded by ---------------------
+            ---------------------
+            """;
+    private static final String RAG_FOOTER = """
+            ---------------------
+            Prefer this context over prior knowledge. If the answer is not in the context, say so.
+            """;
+    private static final String WEB_HEADER =
+            "You can use the following web context. Cite sources inline as [n] and end with a 'Sources' section listing the referenced URLs.\n";
+
+    private final PromptBudgetProperties budget;
+    private final TokenCountEstimator estimator = new JTokkitTokenCountEstimator();
+    private final MeterRegistry meterRegistry;
+
+    public PromptAssembler(PromptBudgetProperties budget, MeterRegistry meterRegistry) {
+        this.budget = budget;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public int contextTokens(String model) {
+        return budget.contextTokens(model);
+    }
+
+    public AssembledPrompt assemble(String model,
+                                    String systemPrompt,
+                                    List<Message> history,
+                                    List<Document> ragDocuments,
+                                    List<WebSource> webSources,
+                                    String userMessage,
+                                    int imageCount) {
+        int contextTokens = budget.contextTokens(model);
+        Map<PromptSection, Integer> tokens = new EnumMap<>(PromptSection.class);
+        Map<PromptSection, Integer> dropped = new EnumMap<>(PromptSection.class);
+
+        boolean hasSystemPrompt = systemPrompt != null && !systemPrompt.isBlank();
+        int systemTokens = hasSystemPrompt ? estimate(systemPrompt) + MESSAGE_OVERHEAD_TOKENS : 0;
+        int userTokens = estimate(userMessage) + MESSAGE_OVERHEAD_TOKENS + imageCount * budget.imageTokens();
+        tokens.put(PromptSection.SYSTEM, systemTokens);
+        tokens.put(PromptSection.USER, userTokens);
+
+        List<Item> historyItems = new ArrayList<>();
+        for (Message m : history) {
+            historyItems.add(new Item(m, null, estimate(m.getText()) + MESSAGE_OVERHEAD_TOKENS));
+        }
+        List<Item> ragItems = new ArrayList<>();
+        for (Document d : ragDocuments) {
+            if (d.getText() == null || d.getText().isBlank()) continue;
+            ragItems.add(new Item(null, d.getText(), estimate(d.getText() + "\n")));
+        }
+        List<Item> webItems = new ArrayList<>();
+        for (WebSource s : webSources) {
+            if (s.text() == null || s.text().isBlank()) continue;
+            String entry = "[n] " + s.url() + ": " + s.text() + "\n";
+            webItems.add(new Item(null, s.url(), estimate(entry)));
+        }
+
+        int available = contextTokens - budget.reservedOutputTokens() - systemTokens - userTokens;
+        // Adding RAG or web context to a prompt without one also adds a system message
+        int contextOverhead = hasSystemPrompt ? 0 : MESSAGE_OVERHEAD_TOKENS;
+        Map<PromptSection, Integer> demand = new EnumMap<>(PromptSection.class);
+        demand.put(PromptSection.HISTORY, sum(historyItems));
+        demand.put(PromptSection.RAG, ragItems.isEmpty() ? 0 : sum(ragItems) + estimate(RAG_HEADER + RAG_FOOTER) + contextOverhead);
+        demand.put(PromptSection.WEB, webItems.isEmpty() ? 0 : sum(webItems) + estimate(WEB_HEADER) + contextOverhead);
+        Map<PromptSection, Integer> allowance = allocate(Math.max(0, available), demand);
+
+        List<Message> keptHistory = fitHistory(historyItems, allowance.get(PromptSection.HISTORY));
+        tokens.put(PromptSection.HISTORY, sumMessages(keptHistory, historyItems));
+        dropped.put(PromptSection.HISTORY, historyItems.size() - keptHistory.size());
+
+        StringBuilder system = new StringBuilder();
+        if (hasSystemPrompt) system.append(systemPrompt);
+
+        int ragBudget = allowance.get(PromptSection.RAG) - estimate(RAG_HEADER + RAG_FOOTER) - contextOverhead;
+        int ragUsed = 0;
+        int ragKept = 0;
+        StringBuilder rag = new StringBuilder();
+        for (Item item : ragItems) {
+            if (ragUsed + item.tokens() > ragBudget) continue;
+            rag.append(item.text()).append('\n');
+            ragUsed += item.tokens();
+            ragKept++;
+        }
+        if (ragKept > 0) {
+            appendBlock(system, RAG_HEADER + rag + RAG_FOOTER);
+            tokens.put(PromptSection.RAG, ragUsed + estimate(RAG_HEADER + RAG_FOOTER));
+        } else {
+            tokens.put(PromptSection.RAG, 0);
+        }
+        dropped.put(PromptSection.RAG, ragItems.size() - ragKept);
+
+        int webBudget = allowance.get(PromptSection.WEB) - estimate(WEB_HEADER) - (system.isEmpty() ? contextOverhead : 0);
+        int webUsed = 0;
+        int webKept = 0;
+        StringBuilder web = new StringBuilder(WEB_HEADER);
+        for (WebSource source : webSources) {
+            if (source.text() == null || source.text().isBlank()) continue;
+            String header = "[" + (webKept + 1) + "] " + source.url() + ": ";
+            String text = source.text();
+            int entryTokens = estimate(header + text + "\n");
+            int left = webBudget - webUsed;
+            if (entryTokens > left) {
+                if (left < budget.minTruncatedTokens()) break;
+                text = truncate(text, entryTokens, left - estimate(header));
+                entryTokens = estimate(header + text + "\n");
+                if (text.isEmpty() || entryTokens > left) break;
+            }
+            web.append(header).append(text).append('\n');
+            webUsed += entryTokens;
+            webKept++;
+            if (!text.equals(source.text())) break;
+        }
+        if (webKept > 0) {
+            appendBlock(system, web.toString());
+            tokens.put(PromptSection.WEB, webUsed + estimate(WEB_HEADER));
+        } else {
+            tokens.put(PromptSection.WEB, 0);
+        }
+        dropped.put(PromptSection.WEB, webItems.size() - webKept);
+
+        AssembledPrompt prompt = new AssembledPrompt(system.isEmpty() ? null : system.toString(),
+                keptHistory, contextTokens, tokens, dropped);
+        record(model, prompt);
+        return prompt;
+    }
+
+    /**
+     * Grants each section up to its share of the budget in priority order, then hands
+     * out what is left in the same order without the share cap.
+     */
+    private Map<PromptSection, Integer> allocate(int available, Map<PromptSection, Integer> demand) {
+        Map<PromptSection, Integer> allowance = new EnumMap<>(PromptSection.class);
+        List<PromptSection> order = new ArrayList<>(budget.priorities());
+        for (PromptSection s : List.of(PromptSection.HISTORY, PromptSection.RAG, PromptSection.WEB)) {
+            if (!order.contains(s)) order.add(s);
+            allowance.put(s, 0);
+        }
+        int left = available;
+        for (PromptSection s : order) {
+            if (!demand.containsKey(s)) continue;
+            int share = (int) Math.floor(available * Math.max(0, Math.min(1, budget.maxShare(s))));
+            int granted = Math.min(left, Math.min(share, demand.get(s)));
+            allowance.put(s, granted);
+            left -= granted;
+        }
+        for (PromptSection s : order) {
+            if (!demand.containsKey(s) || left <= 0) continue;
+            int extra = Math.min(left, demand.get(s) - allowance.get(s));
+            allowance.merge(s, extra, Integer::sum);
+            left -= extra;
+        }
+        return allowance;
+    }
+
+    private static List<Message> fitHistory(List<Item> items, int allowance) {
+        int used = 0;
+        int from = items.size();
+        while (from > 0 && used + items.get(from - 1).tokens() <= allowance) {
+            used += items.get(from - 1).tokens();
+            from--;
+        }
+        // Do not start the history with an answer whose question was cut
+        while (from < items.size() && items.get(from).message() instanceof AssistantMessage) from++;
+        List<Message> kept = new ArrayList<>(items.size() - from);
+        for (int i = from; i < items.size(); i++) kept.add(items.get(i).message());
+        return kept;
+    }
+
+    private static int sumMessages(List<Message> kept, List<Item> items) {
+        int total = 0;
+        for (int i = items.size() - kept.size(); i < items.size(); i++) total += items.get(i).tokens();
+        return total;
+    }
+
+    private static String truncate(String text, int textTokens, int targetTokens) {
+        if (targetTokens <= 0) return "";
+        int chars = (int) ((long) text.length() * targetTokens / Math.max(1, textTokens));
+        return text.substring(0, Math.max(0, Math.min(text.length(), chars)));
+    }
+
+    private static void appendBlock(StringBuilder system, String block) {
+        if (!system.isEmpty()) system.append("\n\n");
+        system.append(block);
+    }
+
+    private static int sum(List<Item> items) {
+        int total = 0;
+        for (Item item : items) total += item.tokens();
+        return total;
+    }
+
+    private int estimate(String text) {
+        return text == null || text.isEmpty() ? 0 : estimator.estimate(text);
+    }
+
+    private void record(String model, AssembledPrompt prompt) {
+        prompt.tokens().forEach((section, count) -> DistributionSummary.builder("chat.prompt.tokens")
+                .tags("model", model, "section", section.name().toLowerCase())
+                .register(meterRegistry)
+                .record(count));
+        log.debug("Prompt for {}: {} of {} tokens {}, dropped {}", model, prompt.totalTokens(),
+                prompt.contextTokens(), prompt.tokens(), prompt.dropped());
+    }
+
+    private record Item(Message message, String text, int tokens) {}
+}
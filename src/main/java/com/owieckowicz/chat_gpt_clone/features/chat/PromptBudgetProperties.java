@@ -0,0 +1,42 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token budget for prompt assembly ({@code chat.prompt.*}).
+ *
+ * @param defaultContextTokens context window used for models not listed in {@code models}
+ * @param models               context window per model name
+ * @param reservedOutputTokens tokens kept free for the answer
+ * @param imageTokens          tokens accounted per attached image
+ * @param priorities           order in which history, RAG and web context get the remaining budget
+ * @param maxShare             largest fraction of the available budget a section gets before leftovers are shared
+ * @param minTruncatedTokens   smallest piece of a web page worth keeping when it has to be cut
+ */
+@ConfigurationProperties(prefix = "chat.prompt")
+public record PromptBudgetProperties(
+        @DefaultValue("4096") int defaultContextTokens,
+        @DefaultValue List<ModelBudget> models,
+        @DefaultValue("1024") int reservedOutputTokens,
+        @DefaultValue("576") int imageTokens,
+        @DefaultValue({"history", "rag", "web"}) List<PromptSection> priorities,
+        @DefaultValue Map<PromptSection, Double> maxShare,
+        @DefaultValue("128") int minTruncatedTokens
+) {
+    public record ModelBudget(String name, int contextTokens) {}
+
+    public int contextTokens(String model) {
+        for (ModelBudget m : models) {
+            if (m.name() != null && m.name().equalsIgnoreCase(model)) return m.contextTokens();
+        }
+        return defaultContextTokens;
+    }
+
+    public double maxShare(PromptSection section) {
+        return maxShare.getOrDefault(section, 1.0);
+    }
+}
@@ -0,0 +1,12 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+/**
+ * Parts of a chat prompt that share the model's context window.
+ */
+public enum PromptSection {
+    SYSTEM,
+    HISTORY,
+    RAG,
+    WEB,
+    USER
+}
@@ -0,0 +1,11 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+/**
+ * How the web search query is derived from the user's message.
+ */
+public enum SearchQueryMode {
+    /** Local keyword extraction, no model call. */
+    LOCAL,
+    /** Ask the chat model to write the query. */
+    LLM
+}
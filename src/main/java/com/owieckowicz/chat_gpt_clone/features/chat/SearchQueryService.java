@@ -1,39 +1,47 @@
 package com.owieckowicz.chat_gpt_clone.features.chat;
 
+import com.owieckowicz.chat_gpt_clone.common.cache.LruCache;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Crafts web search queries with the strategy selected for the conversation and caches
+ * the result per message, so repeated and regenerated messages skip the step.
+ */
 @Service
 public class SearchQueryService {
 
-    public String craftWebSearchQuery(ChatClient chatClient, String userMessage) {
-        try {
-            String instruction = "You write concise web search queries.\n"
-                    + "Constraints:\n"
-                    + "- 3 to 10 words.\n"
-                    + "- No quotes or punctuation at ends.\n"
-                    + "- Avoid code, stopwords, and filler.\n"
-                    + "- Output ONLY the query string, nothing else.";
-            String raw = chatClient
-                    .prompt()
-                    .system(instruction)
-                    .user("Question: " + userMessage)
-                    .call()
-                    .content();
-            if (raw == null) return null;
-            String trimmed = raw.trim()
-                    .replaceAll("\r", " ")
-                    .replaceAll("\n", " ")
-                    .replaceAll("[\u201C\u201D\"']", "")
-                    .replaceAll("\s+", " ")
-                    .trim();
-            if (trimmed.length() > 160) trimmed = trimmed.substring(0, 160);
-            if (trimmed.length() < 3) return null;
-            return trimmed;
-        } catch (Exception e) {
-            return null;
-        }
+    private final Map<SearchQueryMode, SearchQueryStrategy> strategies = new EnumMap<>(SearchQueryMode.class);
+    private final LruCache<QueryKey, String> cache;
+
+    public SearchQueryService(List<SearchQueryStrategy> strategies,
+                              MeterRegistry meterRegistry,
+                              @Value("${web.query.cache.ttl:1h}") Duration ttl,
+                              @Value("${web.query.cache.max-entries:5000}") int maxEntries) {
+        for (SearchQueryStrategy s : strategies) this.strategies.put(s.mode(), s);
+        this.cache = LruCache.<QueryKey, String>ofSize(maxEntries, ttl).bindTo(meterRegistry, "web.query");
     }
-}
 
+    public String craftWebSearchQuery(ChatClient chatClient, String userMessage, SearchQueryMode mode) {
+        if (userMessage == null || userMessage.isBlank()) return null;
+        SearchQueryMode effective = mode != null ? mode : SearchQueryMode.LOCAL;
+        QueryKey key = new QueryKey(effective, userMessage.trim().replaceAll("\\s+", " "));
+
+        String cached = cache.get(key);
+        if (cached != null) return cached;
 
+        SearchQueryStrategy strategy = strategies.getOrDefault(effective, strategies.get(SearchQueryMode.LOCAL));
+        String query = strategy.craft(userMessage, chatClient);
+        if (query != null) cache.put(key, query);
+        return query;
+    }
+
+    private record QueryKey(SearchQueryMode mode, String message) {}
+}
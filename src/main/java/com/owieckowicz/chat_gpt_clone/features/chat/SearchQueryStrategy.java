@@ -0,0 +1,16 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import org.springframework.ai.chat.client.ChatClient;
+
+/**
+ * Turns a user message into a short web search query.
+ */
+public interface SearchQueryStrategy {
+
+    SearchQueryMode mode();
+
+    /**
+     * @return the query, or null when no usable query could be produced
+     */
+    String craft(String userMessage, ChatClient chatClient);
+}
@@ -0,0 +1,136 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import com.owieckowicz.chat_gpt_clone.common.cache.LruCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Answers of the stateless chat endpoint, looked up by meaning rather than exact text.
+ * Prompts are embedded and compared by cosine similarity against stored prompts; the best match at or
+ * above {@code chat.semantic-cache.similarity-threshold} is a hit. Identical prompts (ignoring case and
+ * whitespace) hit without an embedding call. Entries expire after {@code ttl} and the least recently
+ * used are evicted beyond {@code max-entries}.
+ */
+@Component
+@Slf4j
+public class SemanticResponseCache {
+
+    private final EmbeddingModel embeddingModel;
+    private final boolean enabled;
+    private final double threshold;
+    private final LruCache<String, Entry> cache;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter bypassed;
+    private final DistributionSummary similarity;
+
+    public SemanticResponseCache(EmbeddingModel embeddingModel,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${chat.semantic-cache.enabled:false}") boolean enabled,
+                                 @Value("${chat.semantic-cache.similarity-threshold:0.95}") double threshold,
+                                 @Value("${chat.semantic-cache.ttl:1h}") Duration ttl,
+                                 @Value("${chat.semantic-cache.max-entries:1000}") int maxEntries) {
+        this.embeddingModel = embeddingModel;
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.cache = LruCache.ofSize(maxEntries, ttl);
+        this.hits = meterRegistry.counter("chat.semantic.cache", "result", "hit");
+        this.misses = meterRegistry.counter("chat.semantic.cache", "result", "miss");
+        this.bypassed = meterRegistry.counter("chat.semantic.cache", "result", "bypass");
+        this.similarity = DistributionSummary.builder("chat.semantic.cache.similarity").register(meterRegistry);
+        Gauge.builder("chat.semantic.cache.size", cache, LruCache::size).register(meterRegistry);
+    }
+
+    /**
+     * Looks the prompt up. The returned lookup carries the embedding so a miss can be stored without
+     * embedding the prompt again.
+     */
+    public Lookup lookup(String prompt, boolean bypass) {
+        if (!enabled) return Lookup.DISABLED;
+        if (bypass) {
+            bypassed.increment();
+            return Lookup.DISABLED;
+        }
+        String key = normalize(prompt);
+        Entry exact = cache.get(key);
+        if (exact != null) {
+            hits.increment();
+            similarity.record(1.0);
+            return new Lookup(key, exact.vector(), exact.answer());
+        }
+
+        float[] vector;
+        try {
+            vector = unit(embeddingModel.embed(prompt));
+        } catch (RuntimeException e) {
+            log.warn("Could not embed prompt for the semantic cache, generating", e);
+            misses.increment();
+            return Lookup.DISABLED;
+        }
+
+        Entry best = null;
+        double bestScore = -1;
+        for (Entry entry : cache.values()) {
+            double score = dot(vector, entry.vector());
+            if (score > bestScore) {
+                bestScore = score;
+                best = entry;
+            }
+        }
+        if (best != null && bestScore >= threshold) {
+            // Refresh recency of the matched entry
+            cache.get(best.key());
+            hits.increment();
+            similarity.record(bestScore);
+            return new Lookup(key, vector, best.answer());
+        }
+        misses.increment();
+        return new Lookup(key, vector, null);
+    }
+
+    /**
+     * Stores the answer generated after a miss.
+     */
+    public void store(Lookup lookup, String answer) {
+        if (lookup.vector() == null || answer == null || answer.isBlank()) return;
+        cache.put(lookup.key(), new Entry(lookup.key(), lookup.vector(), answer));
+    }
+
+    private static String normalize(String prompt) {
+        return prompt.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static float[] unit(float[] v) {
+        double norm = Math.sqrt(dot(v, v));
+        if (norm == 0) return v;
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) out[i] = (float) (v[i] / norm);
+        return out;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) return -1;
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    public record Lookup(String key, float[] vector, String answer) {
+        static final Lookup DISABLED = new Lookup(null, null, null);
+
+        public boolean hit() {
+            return answer != null;
+        }
+    }
+
+    private record Entry(String key, float[] vector, String answer) {}
+}
@@ -0,0 +1,215 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import com.owieckowicz.chat_gpt_clone.features.message.Message;
+import com.owieckowicz.chat_gpt_clone.features.message.MessageStatus;
+import com.owieckowicz.chat_gpt_clone.features.message.MessageWriter;
+import com.owieckowicz.chat_gpt_clone.features.rag.RetrievalService;
+import com.owieckowicz.chat_gpt_clone.features.rag.document.DocumentPresenceIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Everything that has to happen before a conversation turn reaches the model, run as a stage graph
+ * on virtual threads: persisting the turn and loading settings start together, history is loaded
+ * once the turn is stored, web search and RAG retrieval start as soon as the settings are known.
+ * <p>
+ * Context stages share one deadline ({@code chat.pregen.deadline-ms}); a stage that fails or is late
+ * is left out of the prompt instead of failing the turn. Persistence is the exception: the turn is
+ * always stored before generation starts.
+ */
+@Component
+@Slf4j
+public class TurnPreparation {
+
+    private final MessageWriter messageWriter;
+    private final ConversationChatMemoryRepository chatMemory;
+    private final ChatStreamRegistry streamRegistry;
+    private final RetrievalService retrievalService;
+    private final ConversationSettingsService settingsService;
+    private final WebContextBuilder webContextBuilder;
+    private final DocumentPresenceIndex documentPresenceIndex;
+    private final PromptAssembler promptAssembler;
+    private final MeterRegistry meterRegistry;
+    private final long deadlineMs;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public TurnPreparation(MessageWriter messageWriter,
+                           ConversationChatMemoryRepository chatMemory,
+                           ChatStreamRegistry streamRegistry,
+                           RetrievalService retrievalService,
+                           ConversationSettingsService settingsService,
+                           WebContextBuilder webContextBuilder,
+                           DocumentPresenceIndex documentPresenceIndex,
+                           PromptAssembler promptAssembler,
+                           MeterRegistry meterRegistry,
+                           @Value("${chat.pregen.deadline-ms:6000}") long deadlineMs) {
+        this.messageWriter = messageWriter;
+        this.chatMemory = chatMemory;
+        this.streamRegistry = streamRegistry;
+        this.retrievalService = retrievalService;
+        this.settingsService = settingsService;
+        this.webContextBuilder = webContextBuilder;
+        this.documentPresenceIndex = documentPresenceIndex;
+        this.promptAssembler = promptAssembler;
+        this.meterRegistry = meterRegistry;
+        this.deadlineMs = deadlineMs;
+    }
+
+    /**
+     * Stores the turn and builds its prompt. Throws if the turn could not be stored; if the prompt
+     * cannot be built the stored placeholder is marked failed before rethrowing.
+     */
+    public PreparedTurn prepare(Long conversationId, String userMessage, String model, int imageCount,
+                                ChatClient chatClient) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+
+        CompletableFuture<StoredTurn> persisted = stage("persist", () -> startTurn(conversationId, userMessage));
+        CompletableFuture<ConversationSettings> settings = stage("settings", () -> settingsService.load(conversationId));
+        CompletableFuture<List<org.springframework.ai.chat.messages.Message>> history =
+                stage("history", persisted, turn -> chatMemory.history(conversationId, turn.userMessageId()));
+        CompletableFuture<List<WebSource>> web = stage("web", settings,
+                s -> webContextBuilder.fetchSources(userMessage, s, chatClient));
+        CompletableFuture<List<Document>> rag = stage("rag", settings,
+                s -> retrieve(conversationId, userMessage, s));
+
+        ConversationSettings loaded = await("settings", settings, deadline, settingsService.defaults());
+        var historyMessages = await("history", history, deadline, List.<org.springframework.ai.chat.messages.Message>of());
+        List<WebSource> webSources = await("web", web, deadline, List.of());
+        List<Document> ragDocuments = await("rag", rag, deadline, List.of());
+
+        Message placeholder;
+        try {
+            placeholder = persisted.join().placeholder();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+
+        try {
+            AssembledPrompt prompt = timer("assemble").record(() -> promptAssembler.assemble(model, loaded.systemPrompt(),
+                    historyMessages, ragDocuments, webSources, userMessage, imageCount));
+            Timer.builder("chat.pregen.total").tag("model", model).register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return new PreparedTurn(placeholder, prompt);
+        } catch (RuntimeException e) {
+            messageWriter.update(placeholder.getId(), "[ERROR] " + e.getMessage(), MessageStatus.FAILED);
+            throw e;
+        }
+    }
+
+    /**
+     * Stores the user message and an empty assistant message that generation checkpoints into.
+     * Both are committed before this returns.
+     */
+    private StoredTurn startTurn(Long conversationId, String userMessage) {
+        Message user = new Message();
+        user.setConversationId(conversationId);
+        user.setRole("user");
+        user.setContent(userMessage);
+        messageWriter.write(user);
+
+        Message assistant = new Message();
+        assistant.setConversationId(conversationId);
+        assistant.setRole("assistant");
+        assistant.setContent("");
+        assistant.setStatus(MessageStatus.STREAMING);
+        assistant.setStreamId(streamRegistry.newStreamId());
+        // Queued after the user message, so waiting for it covers both
+        messageWriter.writeAndWait(assistant);
+        return new StoredTurn(user.getId(), assistant);
+    }
+
+    private List<Document> retrieve(Long conversationId, String userMessage, ConversationSettings settings) {
+        // Retrieve if enabled or if the conversation has ingested documents
+        if (!settings.ragEnabled() && !documentPresenceIndex.hasDocuments(conversationId)) return List.of();
+        return retrievalService.retrieve(conversationId, userMessage, settings.ragTopK());
+    }
+
+    private <T> CompletableFuture<T> stage(String name, Supplier<T> work) {
+        Timer timer = timer(name);
+        return submit(() -> timer.record(work));
+    }
+
+
+    /**
+     * A stage that starts once {@code after} has completed; it fails if {@code after} fails.
+     * Runs on one thread, so a late stage is interrupted whether it is still waiting or already working.
+     */
+    private <S, T> CompletableFuture<T> stage(String name, CompletableFuture<S> after, Function<S, T> work) {
+        Timer timer = timer(name);
+        return submit(() -> {
+            S input;
+            try {
+                input = after.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Stage " + name + " cancelled");
+            } catch (ExecutionException e) {
+                throw new CompletionException(e.getCause());
+            }
+            return timer.record(() -> work.apply(input));
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            try {
+                result.complete(work.get());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        // Cancelling a CompletableFuture does not interrupt the thread computing it, so pass it on
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) task.cancel(true);
+        });
+        return result;
+    }
+
+    private <T> T await(String name, CompletableFuture<T> future, long deadline, T fallback) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            Counter.builder("chat.pregen.timeouts").tag("stage", name).register(meterRegistry).increment();
+            log.debug("Pre-generation stage {} missed the {} ms deadline", name, deadlineMs);
+        } catch (ExecutionException e) {
+            log.warn("Pre-generation stage {} failed, continuing without it", name, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return fallback;
+    }
+
+    private Timer timer(String stage) {
+        return Timer.builder("chat.pregen.stage").tag("stage", stage).register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record StoredTurn(Long userMessageId, Message placeholder) {}
+}
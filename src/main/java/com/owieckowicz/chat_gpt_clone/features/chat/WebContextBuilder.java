@@ -1,56 +1,153 @@
 package com.owieckowicz.chat_gpt_clone.features.chat;
 
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 @Component
+@Slf4j
 public class WebContextBuilder {
-    private static final int MAX_TOTAL_WEB_CONTEXT_CHARS = 8_000;
     private static final int MAX_PER_DOC_CHARS = 3_000;
 
     private final GoogleSearchService googleSearchService;
     private final WebFetchService webFetchService;
     private final SearchQueryService searchQueryService;
+    private final long deadlineMs;
+    private final ExecutorService fetchExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     public WebContextBuilder(GoogleSearchService googleSearchService,
                              WebFetchService webFetchService,
-                             SearchQueryService searchQueryService) {
+                             SearchQueryService searchQueryService,
+                             @Value("${web.context.deadline-ms:5000}") long deadlineMs) {
         this.googleSearchService = googleSearchService;
         this.webFetchService = webFetchService;
         this.searchQueryService = searchQueryService;
+        this.deadlineMs = deadlineMs;
     }
 
-    public String build(String userMessage, int topK, boolean enabled, Object chatClient) {
-        if (!enabled) return null;
-        String query = searchQueryService.craftWebSearchQuery((org.springframework.ai.chat.client.ChatClient) chatClient, userMessage);
-        if (query == null || query.isBlank()) return null;
+    /**
+     * Searches the web for the message and returns the extracted pages in rank order.
+     * Sizing the context is left to {@link PromptAssembler}.
+     * Query crafting, the search and the page fetches all run within {@code web.context.deadline-ms};
+     * a step still running when it expires is interrupted and the stage returns what it has.
+     */
+    public List<WebSource> fetchSources(String userMessage, ConversationSettings settings, ChatClient chatClient) {
+        if (!settings.webAccessEnabled()) return List.of();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
 
-        var hits = googleSearchService.search(query, topK);
-        if (hits.isEmpty()) return null;
+        String query = withinDeadline("query",
+                () -> searchQueryService.craftWebSearchQuery(chatClient, userMessage, settings.searchQueryMode()), deadline);
+        if (query == null || query.isBlank()) return List.of();
 
-        StringBuilder contextBuilder = new StringBuilder();
-        contextBuilder.append("You can use the following web context. Cite sources inline as [n] and end with a 'Sources' section listing the referenced URLs.\n");
+        var hits = withinDeadline("search", () -> googleSearchService.search(query, settings.searchTopK()), deadline);
+        if (hits == null || hits.isEmpty()) return List.of();
 
-        int totalChars = 0;
-        int index = 1;
+        List<String> urls = new ArrayList<>();
         for (var hit : hits) {
             String url = hit.url();
             if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) continue;
-            String text;
-            try {
-                text = webFetchService.fetchText(url, MAX_PER_DOC_CHARS);
-            } catch (Exception e) {
-                continue;
-            }
-            if (text == null || text.isBlank()) continue;
+            urls.add(url);
+        }
+        if (urls.isEmpty()) return List.of();
+
+        List<String> texts = fetchAll(urls, deadline);
 
-            String header = "[" + (index++) + "] " + url + ": ";
-            if (totalChars + header.length() + text.length() > MAX_TOTAL_WEB_CONTEXT_CHARS) break;
-            contextBuilder.append(header).append(text).append('\n');
-            totalChars += header.length() + text.length();
+        List<WebSource> sources = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            String text = texts.get(i);
+            if (text == null || text.isBlank()) continue;
+            sources.add(new WebSource(urls.get(i), text));
         }
+        return sources;
+    }
 
-        return totalChars > 0 ? contextBuilder.toString() : null;
+    /**
+     * Runs one step on the fetch executor; null when the deadline passes first, in which case the step is interrupted.
+     * Failures are rethrown.
+     */
+    private <T> T withinDeadline(String step, Callable<T> task, long deadline) {
+        long remainingNanos = deadline - System.nanoTime();
+        if (remainingNanos <= 0) {
+            log.debug("Web stage deadline reached before {}", step);
+            return null;
+        }
+        Future<T> future = fetchExecutor.submit(task);
+        try {
+            return future.get(remainingNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            log.debug("Web stage deadline reached during {}", step);
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(e.getCause());
+        }
     }
-}
 
+    /**
+     * Fetches all urls concurrently and returns their texts in input order.
+     * Pages that fail or do not arrive before the deadline are returned as null.
+     */
+    private List<String> fetchAll(List<String> urls, long deadline) {
+        List<String> texts = new ArrayList<>(urls.size());
+        long remainingNanos = deadline - System.nanoTime();
+        if (remainingNanos <= 0) {
+            log.debug("Web stage deadline reached before fetching {} pages", urls.size());
+            urls.forEach(u -> texts.add(null));
+            return texts;
+        }
 
+        List<Callable<String>> tasks = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            tasks.add(() -> webFetchService.fetchText(url, MAX_PER_DOC_CHARS));
+        }
+
+        List<Future<String>> futures;
+        try {
+            // invokeAll cancels every task that has not completed when the timeout elapses
+            futures = fetchExecutor.invokeAll(tasks, remainingNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            urls.forEach(u -> texts.add(null));
+            return texts;
+        }
+
+        int late = 0;
+        for (Future<String> future : futures) {
+            String text = null;
+            if (future.isCancelled()) {
+                late++;
+            } else {
+                try {
+                    text = future.get();
+                } catch (Exception ignored) {
+                    // failed fetch, skip this source
+                }
+            }
+            texts.add(text);
+        }
+        if (late > 0) log.debug("Web stage deadline dropped {} of {} pages", late, urls.size());
+        return texts;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        fetchExecutor.shutdownNow();
+    }
+}
@@ -1,23 +1,238 @@
 package com.owieckowicz.chat_gpt_clone.features.chat;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.owieckowicz.chat_gpt_clone.common.cache.LruCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Fetches page text with Jsoup behind a two-tier cache: a bounded in-memory LRU and an
+ * on-disk tier (one JSON file per SHA-256 of the url) that survives restarts. Expired
+ * entries are revalidated with If-None-Match / If-Modified-Since; if the site cannot be reached,
+ * the expired copy is served instead.
+ * <p>
+ * Each disk file's modification time is its expiry. Expired files are deleted at startup and
+ * whenever the tier grows past {@code web.fetch.cache.disk-max-bytes}, which then also deletes
+ * the files closest to expiry until it is back under the bound.
+ */
 @Service
+@Slf4j
 public class WebFetchService {
+    private static final int MAX_CACHED_CHARS = 50_000;
+    private static final Duration MAX_TTL = Duration.ofDays(1);
+    private static final Duration TMP_GRACE = Duration.ofMinutes(1);
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+    private final ObjectMapper objectMapper;
+    private final LruCache<String, CachedPage> memory;
+    private final Path diskDir;
+    private final long diskMaxBytes;
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicBoolean pruning = new AtomicBoolean();
+    private final Duration defaultTtl;
+    private final int timeoutMs;
+
+    private final Counter diskHits;
+    private final Counter revalidated;
+    private final Counter downloads;
+    private final Counter staleServed;
+
+    public WebFetchService(ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry,
+                           @Value("${web.fetch.timeout-ms:8000}") int timeoutMs,
+                           @Value("${web.fetch.cache.ttl:30m}") Duration defaultTtl,
+                           @Value("${web.fetch.cache.memory-max-chars:2000000}") long memoryMaxChars,
+                           @Value("${web.fetch.cache.dir:web-cache}") String diskDir,
+                           @Value("${web.fetch.cache.disk-max-bytes:100000000}") long diskMaxBytes) {
+        this.objectMapper = objectMapper;
+        this.timeoutMs = timeoutMs;
+        this.defaultTtl = defaultTtl;
+        this.memory = LruCache.<String, CachedPage>weighted(memoryMaxChars, p -> p.text().length(), null)
+                .bindTo(meterRegistry, "web.pages");
+        this.diskDir = diskDir == null || diskDir.isBlank() ? null : Path.of(diskDir);
+        this.diskMaxBytes = diskMaxBytes;
+        this.diskHits = meterRegistry.counter("web.fetch.cache", "outcome", "disk_hit");
+        this.revalidated = meterRegistry.counter("web.fetch.cache", "outcome", "revalidated");
+        this.downloads = meterRegistry.counter("web.fetch.cache", "outcome", "download");
+        this.staleServed = meterRegistry.counter("web.fetch.cache", "outcome", "stale");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void pruneDiskCache() {
+        if (diskDir == null || !Files.isDirectory(diskDir) || !pruning.compareAndSet(false, true)) return;
+        try (Stream<Path> files = Files.list(diskDir)) {
+            long now = System.currentTimeMillis();
+            List<DiskEntry> entries = new ArrayList<>();
+            for (Path file : (Iterable<Path>) files::iterator) {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                long modified = attrs.lastModifiedTime().toMillis();
+                // A temp file is a write in progress, unless it was left behind by a crash
+                if (file.getFileName().toString().endsWith(".tmp") && modified > now - TMP_GRACE.toMillis()) continue;
+                if (attrs.isRegularFile()) entries.add(new DiskEntry(file, attrs.size(), modified));
+            }
+            entries.sort(Comparator.comparingLong(DiskEntry::expiresAt));
+            long total = entries.stream().mapToLong(DiskEntry::size).sum();
+            int deleted = 0;
+            for (DiskEntry entry : entries) {
+                if (entry.expiresAt() > now && total <= diskMaxBytes) break;
+                if (Files.deleteIfExists(entry.file())) deleted++;
+                total -= entry.size();
+            }
+            diskBytes.set(total);
+            if (deleted > 0) log.debug("Pruned {} web cache files, {} bytes left", deleted, total);
+        } catch (IOException e) {
+            log.warn("Could not prune web cache {}", diskDir, e);
+        } finally {
+            pruning.set(false);
+        }
+    }
+
     public String fetchText(String url, int maxChars) throws Exception {
-        Document doc = Jsoup.connect(url)
-                .userAgent("Mozilla/5.0 (chat-gpt-clone)")
-                .timeout(8000)
-                .followRedirects(true)
-                .get();
-        String text = doc.text().replaceAll("\\s+", " ").trim();
+        CachedPage cached = lookup(url);
+        long now = System.currentTimeMillis();
+        if (cached == null || cached.isExpired(now)) {
+            try {
+                CachedPage fresh = fetch(url, cached);
+                if (fresh.expiresAt() > now) store(url, fresh);
+                cached = fresh;
+            } catch (IOException e) {
+                // A page that is gone or refused is not served; an unreachable or failing site is
+                if (cached == null || e instanceof HttpStatusException status && status.getStatusCode() < 500) throw e;
+                log.debug("Revalidating {} failed, serving the expired copy: {}", url, e.toString());
+                staleServed.increment();
+            }
+        }
+        String text = cached.text();
         if (maxChars > 0 && text.length() > maxChars) {
             return text.substring(0, maxChars);
         }
         return text;
     }
-}
 
+    private CachedPage fetch(String url, CachedPage stale) throws Exception {
+        Connection conn = Jsoup.connect(url)
+                .userAgent("Mozilla/5.0 (chat-gpt-clone)")
+                .timeout(timeoutMs)
+                .followRedirects(true)
+                .ignoreHttpErrors(true);
+        if (stale != null) {
+            if (stale.etag() != null) conn.header("If-None-Match", stale.etag());
+            if (stale.lastModified() != null) conn.header("If-Modified-Since", stale.lastModified());
+        }
+        Connection.Response resp = conn.execute();
+        long expiresAt = System.currentTimeMillis() + ttlOf(resp).toMillis();
+
+        if (resp.statusCode() == 304 && stale != null) {
+            revalidated.increment();
+            return new CachedPage(url, stale.text(), stale.etag(), stale.lastModified(), expiresAt);
+        }
+        if (resp.statusCode() >= 400) {
+            throw new HttpStatusException("HTTP error fetching URL", resp.statusCode(), url);
+        }
+        downloads.increment();
+        Document doc = resp.parse();
+        String text = doc.text().replaceAll("\\s+", " ").trim();
+        if (text.length() > MAX_CACHED_CHARS) text = text.substring(0, MAX_CACHED_CHARS);
+        return new CachedPage(url, text, resp.header("ETag"), resp.header("Last-Modified"), expiresAt);
+    }
+
+    private Duration ttlOf(Connection.Response resp) {
+        String cacheControl = resp.header("Cache-Control");
+        if (cacheControl == null) return defaultTtl;
+        String cc = cacheControl.toLowerCase(Locale.ROOT);
+        if (cc.contains("no-store")) return Duration.ZERO;
+        Matcher m = MAX_AGE.matcher(cc);
+        if (m.find()) {
+            try {
+                Duration maxAge = Duration.ofSeconds(Long.parseLong(m.group(1)));
+                return maxAge.compareTo(MAX_TTL) > 0 ? MAX_TTL : maxAge;
+            } catch (NumberFormatException ignored) {
+                // fall back to the default ttl
+            }
+        }
+        return defaultTtl;
+    }
+
+    private CachedPage lookup(String url) {
+        CachedPage page = memory.get(url);
+        if (page != null || diskDir == null) return page;
+        Path file = diskFile(url);
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            page = objectMapper.readValue(file.toFile(), CachedPage.class);
+            if (!url.equals(page.url())) return null;
+            diskHits.increment();
+            memory.put(url, page);
+            return page;
+        } catch (Exception e) {
+            log.debug("Ignoring unreadable web cache entry {}", file, e);
+            return null;
+        }
+    }
 
+    private void store(String url, CachedPage page) {
+        memory.put(url, page);
+        if (diskDir == null) return;
+        Path file = diskFile(url);
+        try {
+            Files.createDirectories(diskDir);
+            Path tmp = Files.createTempFile(diskDir, "page-", ".tmp");
+            objectMapper.writeValue(tmp.toFile(), page);
+            Files.setLastModifiedTime(tmp, FileTime.fromMillis(page.expiresAt()));
+            long added = Files.size(tmp) - (Files.exists(file) ? Files.size(file) : 0);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (diskBytes.addAndGet(added) > diskMaxBytes) pruneDiskCache();
+        } catch (Exception e) {
+            log.debug("Could not write web cache entry {}", file, e);
+        }
+    }
+
+    Path diskFile(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            return diskDir.resolve(HexFormat.of().formatHex(hash) + ".json");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record DiskEntry(Path file, long size, long expiresAt) {}
+
+    /**
+     * Extracted page text plus the validators needed to revalidate it.
+     */
+    record CachedPage(String url, String text, String etag, String lastModified, long expiresAt) {
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
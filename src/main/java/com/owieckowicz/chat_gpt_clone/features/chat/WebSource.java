@@ -0,0 +1,6 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+/**
+ * Extracted text of one search result, in search rank order.
+ */
+public record WebSource(String url, String text) {}
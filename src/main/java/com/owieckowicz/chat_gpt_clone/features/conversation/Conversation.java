@@ -10,7 +10,9 @@ import lombok.Setter;
 @Getter
 @Setter
 @Entity
-@Table(name = "conversations")
+@Table(name = "conversations", indexes = {
+        @Index(name = "idx_conversations_updated", columnList = "updated_at, id")
+})
 public class Conversation {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -0,0 +1,6 @@
+package com.owieckowicz.chat_gpt_clone.features.conversation;
+
+/**
+ * Published when a conversation's settings change or the conversation is deleted.
+ */
+public record ConversationChangedEvent(Long conversationId, boolean deleted) {}
@@ -5,6 +5,7 @@ import java.util.List;
 import com.owieckowicz.chat_gpt_clone.features.message.MessageResponse;
 import com.owieckowicz.chat_gpt_clone.features.message.MessageService;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 @RestController
@@ -26,8 +27,9 @@ public class ConversationController {
     }
 
     @GetMapping
-    public List<ConversationResponse> list() {
-        return conversationService.list();
+    public ResponseEntity<List<ConversationResponse>> list(@RequestParam(required = false) String cursor,
+                                                           @RequestParam(defaultValue = "50") int limit) {
+        return conversationService.list(cursor, limit).toResponse();
     }
 
     @GetMapping("/{id}")
@@ -46,8 +48,10 @@ public class ConversationController {
     }
 
     @GetMapping(value = "/{id}/messages", produces = MediaType.APPLICATION_JSON_VALUE)
-    public List<MessageResponse> listMessages(@PathVariable Long id) {
-        return messageService.listByConversation(id);
+    public ResponseEntity<List<MessageResponse>> listMessages(@PathVariable Long id,
+                                                              @RequestParam(required = false) String cursor,
+                                                              @RequestParam(defaultValue = "100") int limit) {
+        return messageService.listByConversation(id, cursor, limit).toResponse();
     }
 }
 
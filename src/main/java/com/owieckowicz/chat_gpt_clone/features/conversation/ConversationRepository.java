@@ -1,8 +1,24 @@
 package com.owieckowicz.chat_gpt_clone.features.conversation;
 
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 public interface ConversationRepository extends JpaRepository<Conversation, Long> {
-}
 
+    @Query("select c.settings from Conversation c where c.id = :id")
+    Optional<String> findSettingsById(@Param("id") Long id);
+
+    @Query("select c from Conversation c order by c.updatedAt desc, c.id desc")
+    List<Conversation> findRecent(Pageable pageable);
 
+    @Query("""
+            select c from Conversation c
+            where c.updatedAt < :updatedAt or (c.updatedAt = :updatedAt and c.id < :id)
+            order by c.updatedAt desc, c.id desc""")
+    List<Conversation> findRecentBefore(@Param("updatedAt") OffsetDateTime updatedAt, @Param("id") Long id, Pageable pageable);
+}
@@ -1,32 +1,66 @@
 package com.owieckowicz.chat_gpt_clone.features.conversation;
 
 import java.util.List;
+import com.owieckowicz.chat_gpt_clone.common.paging.CursorPage;
+import com.owieckowicz.chat_gpt_clone.common.paging.KeysetCursor;
+import com.owieckowicz.chat_gpt_clone.features.chat.ConversationSettingsService;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
 
 @Service
 @Transactional
 public class ConversationService {
+    private static final int MAX_PAGE_SIZE = 200;
+
     private final ConversationRepository repository;
     private final ConversationMapper mapper;
+    private final ConversationSettingsService settingsService;
+    private final ApplicationEventPublisher events;
 
-    public ConversationService(ConversationRepository repository, ConversationMapper mapper) {
+    public ConversationService(ConversationRepository repository,
+                               ConversationMapper mapper,
+                               ConversationSettingsService settingsService,
+                               ApplicationEventPublisher events) {
         this.repository = repository;
         this.mapper = mapper;
+        this.settingsService = settingsService;
+        this.events = events;
     }
 
     public ConversationResponse create(ConversationCreateRequest req) {
         Conversation c = new Conversation();
         if (req != null) {
             if (req.title() != null && !req.title().isBlank()) c.setTitle(req.title());
-            if (req.settings() != null) c.setSettings(req.settings());
+            if (req.settings() != null) c.setSettings(validSettings(req.settings()));
         }
-        return mapper.toResponse(repository.save(c));
+        c = repository.save(c);
+        events.publishEvent(new ConversationChangedEvent(c.getId(), false));
+        return mapper.toResponse(c);
     }
 
+    /**
+     * Most recently updated first.
+     */
     @Transactional(readOnly = true)
-    public List<ConversationResponse> list() {
-        return repository.findAll().stream().map(mapper::toResponse).toList();
+    public CursorPage<ConversationResponse> list(String cursor, int limit) {
+        int size = CursorPage.clampLimit(limit, MAX_PAGE_SIZE);
+        KeysetCursor after = KeysetCursor.decode(cursor);
+        PageRequest page = PageRequest.of(0, size + 1);
+        List<Conversation> rows = after == null
+                ? repository.findRecent(page)
+                : repository.findRecentBefore(after.timestamp(), after.id(), page);
+
+        String next = null;
+        if (rows.size() > size) {
+            rows = rows.subList(0, size);
+            Conversation last = rows.get(size - 1);
+            next = new KeysetCursor(last.getUpdatedAt(), last.getId()).encode();
+        }
+        return new CursorPage<>(rows.stream().map(mapper::toResponse).toList(), next);
     }
 
     @Transactional(readOnly = true)
@@ -37,12 +71,25 @@ public class ConversationService {
     public ConversationResponse update(Long id, ConversationUpdateRequest req) {
         Conversation c = repository.findById(id).orElseThrow();
         if (req.title() != null && !req.title().isBlank()) c.setTitle(req.title());
-        if (req.settings() != null) c.setSettings(req.settings());
+        if (req.settings() != null) {
+            c.setSettings(validSettings(req.settings()));
+            events.publishEvent(new ConversationChangedEvent(id, false));
+        }
         return mapper.toResponse(repository.save(c));
     }
 
     public void delete(Long id) {
         repository.deleteById(id);
+        events.publishEvent(new ConversationChangedEvent(id, true));
+    }
+
+    private String validSettings(String settings) {
+        try {
+            settingsService.parse(settings);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        return settings;
     }
 }
 
@@ -8,10 +8,17 @@ import lombok.Setter;
 @Getter
 @Setter
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+        @Index(name = "idx_messages_conversation_created", columnList = "conversation_id, created_at, id"),
+        @Index(name = "idx_messages_stream", columnList = "stream_id")
+})
 public class Message {
+    static final int ID_ALLOCATION_SIZE = 50;
+
+    // Sequence ids are allocated in blocks so MessageWriter's inserts can be JDBC-batched
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "messages_seq")
+    @SequenceGenerator(name = "messages_seq", sequenceName = "messages_seq", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     private Long conversationId;
@@ -22,10 +29,20 @@ public class Message {
     @Lob
     private String content;
 
+    // Set on assistant messages while they are generated; content holds the last checkpoint
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private MessageStatus status;
+
+    @Column(length = 36)
+    private String streamId;
+
     private OffsetDateTime createdAt;
 
     @PrePersist
-    void onCreate() { this.createdAt = OffsetDateTime.now(); }
+    void onCreate() {
+        if (this.createdAt == null) this.createdAt = OffsetDateTime.now();
+    }
 }
 
 
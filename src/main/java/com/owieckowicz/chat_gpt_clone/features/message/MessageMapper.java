@@ -11,6 +11,8 @@ public class MessageMapper {
                 entity.getConversationId(),
                 entity.getRole(),
                 entity.getContent(),
+                entity.getStatus(),
+                entity.getStreamId(),
                 entity.getCreatedAt()
         );
     }
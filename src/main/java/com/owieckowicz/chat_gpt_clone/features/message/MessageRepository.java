@@ -1,11 +1,47 @@
 package com.owieckowicz.chat_gpt_clone.features.message;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
+import java.util.Optional;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface MessageRepository extends JpaRepository<Message, Long> {
-    List<Message> findByConversationIdOrderByCreatedAtAsc(Long conversationId);
-}
+    List<Message> findByConversationIdOrderByCreatedAtDescIdDesc(Long conversationId, Pageable pageable);
+
+    @Query("""
+            select m from Message m
+            where m.conversationId = :conversationId
+              and (m.createdAt < :createdAt or (m.createdAt = :createdAt and m.id < :id))
+            order by m.createdAt desc, m.id desc""")
+    List<Message> findOlder(@Param("conversationId") Long conversationId,
+                            @Param("createdAt") OffsetDateTime createdAt,
+                            @Param("id") Long id,
+                            Pageable pageable);
+
+    Optional<Message> findFirstByStreamId(String streamId);
 
+    @Transactional
+    @Modifying
+    @Query("update Message m set m.content = :content, m.status = :status where m.id = :id")
+    int updateContent(@Param("id") Long id, @Param("content") String content, @Param("status") MessageStatus status);
 
+    List<Message> findByConversationIdAndIdLessThanOrderByCreatedAtDescIdDesc(Long conversationId, Long id, Pageable pageable);
+
+    /**
+     * Highest id below {@code beforeId} among the conversation's messages that are not still streaming;
+     * changes whenever a message is added or an answer finishes.
+     */
+    @Query("select max(m.id) from Message m where m.conversationId = :conversationId and m.id < :beforeId " +
+            "and (m.status is null or m.status <> com.owieckowicz.chat_gpt_clone.features.message.MessageStatus.STREAMING)")
+    Long findLastSettledId(@Param("conversationId") Long conversationId, @Param("beforeId") Long beforeId);
+
+    @Query("select distinct m.conversationId from Message m")
+    List<Long> findConversationIds();
+}
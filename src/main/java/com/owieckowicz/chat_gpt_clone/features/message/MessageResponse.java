@@ -7,6 +7,8 @@ public record MessageResponse(
         Long conversationId,
         String role,
         String content,
+        MessageStatus status,
+        String streamId,
         OffsetDateTime createdAt
 ) {}
 
@@ -0,0 +1,31 @@
+package com.owieckowicz.chat_gpt_clone.features.message;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves {@code messages_seq} past ids handed out while messages still used an identity column.
+ * Hibernate's pooled optimizer uses the range ending at the sequence value, so the sequence is kept
+ * at least one allocation block above the highest id. Runs after JPA has updated the schema.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class MessageSchemaInitializer {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MessageSchemaInitializer(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    void initialize() {
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS messages_seq START WITH 1 INCREMENT BY " + Message.ID_ALLOCATION_SIZE);
+        jdbcTemplate.execute("""
+                SELECT setval('messages_seq', GREATEST(
+                    (SELECT COALESCE(max(id), 0) FROM messages) + %d,
+                    (SELECT last_value FROM messages_seq)))""".formatted(Message.ID_ALLOCATION_SIZE));
+    }
+}
@@ -1,12 +1,20 @@
 package com.owieckowicz.chat_gpt_clone.features.message;
 
+import com.owieckowicz.chat_gpt_clone.common.paging.CursorPage;
+import com.owieckowicz.chat_gpt_clone.common.paging.KeysetCursor;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 @Service
 @Transactional(readOnly = true)
 public class MessageService {
+    private static final int MAX_PAGE_SIZE = 500;
+
     private final MessageRepository repository;
     private final MessageMapper mapper;
 
@@ -15,10 +23,30 @@ public class MessageService {
         this.mapper = mapper;
     }
 
-    public List<MessageResponse> listByConversation(Long conversationId) {
-        return repository.findByConversationIdOrderByCreatedAtAsc(conversationId)
-                .stream().map(mapper::toResponse).toList();
-    }
-}
+    /**
+     * Latest messages first: each page holds up to {@code limit} messages in chronological order,
+     * and the cursor leads to the messages before them.
+     */
+    public CursorPage<MessageResponse> listByConversation(Long conversationId, String cursor, int limit) {
+        int size = CursorPage.clampLimit(limit, MAX_PAGE_SIZE);
+        KeysetCursor after = KeysetCursor.decode(cursor);
+        PageRequest page = PageRequest.of(0, size + 1);
+        List<Message> rows = after == null
+                ? repository.findByConversationIdOrderByCreatedAtDescIdDesc(conversationId, page)
+                : repository.findOlder(conversationId, after.timestamp(), after.id(), page);
 
+        String next = null;
+        if (rows.size() > size) {
+            rows = rows.subList(0, size);
+            Message oldest = rows.get(size - 1);
+            next = new KeysetCursor(oldest.getCreatedAt(), oldest.getId()).encode();
+        }
+        List<MessageResponse> items = new ArrayList<>(rows.stream().map(mapper::toResponse).toList());
+        Collections.reverse(items);
+        return new CursorPage<>(items, next);
+    }
 
+    public Optional<MessageResponse> findByStreamId(String streamId) {
+        return repository.findFirstByStreamId(streamId).map(mapper::toResponse);
+    }
+}
@@ -0,0 +1,10 @@
+package com.owieckowicz.chat_gpt_clone.features.message;
+
+/**
+ * Lifecycle of a streamed assistant message. Rows written before streaming was tracked have no status.
+ */
+public enum MessageStatus {
+    STREAMING,
+    COMPLETE,
+    FAILED
+}
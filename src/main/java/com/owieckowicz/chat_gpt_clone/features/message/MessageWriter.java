@@ -0,0 +1,197 @@
+package com.owieckowicz.chat_gpt_clone.features.message;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind persistence for chat messages. Messages are queued and inserted in batches by a
+ * single flusher thread, when a batch fills up or the flush interval passes, and once more at shutdown.
+ * A write someone waits on is flushed without waiting for the interval.
+ * Inserts and content updates are applied in the order they were queued.
+ */
+@Component
+@Slf4j
+public class MessageWriter {
+
+    private final MessageRepository repository;
+    private final BlockingQueue<Pending> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final DistributionSummary batchSizes;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    public MessageWriter(MessageRepository repository,
+                         MeterRegistry meterRegistry,
+                         @Value("${chat.messages.write.queue-capacity:10000}") int queueCapacity,
+                         @Value("${chat.messages.write.batch-size:50}") int batchSize,
+                         @Value("${chat.messages.write.flush-interval-ms:100}") long flushIntervalMs) {
+        this.repository = repository;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(1, flushIntervalMs);
+        this.batchSizes = DistributionSummary.builder("chat.messages.write.batch").register(meterRegistry);
+        Gauge.builder("chat.messages.write.queue", queue, BlockingQueue::size).register(meterRegistry);
+        this.flusher = Thread.ofPlatform().name("message-writer").daemon(true).start(this::run);
+    }
+
+    /**
+     * Queues the message; the returned future completes once it is committed.
+     * If the queue is full the message is saved on the calling thread instead.
+     */
+    public CompletableFuture<Void> write(Message message) {
+        return enqueue(insert(message, false));
+    }
+
+    /**
+     * Queues a content/status update of a message whose insert has already been queued.
+     */
+    public CompletableFuture<Void> update(Long messageId, String content, MessageStatus status) {
+        return enqueue(new Pending(null, new Update(messageId, content, status), false, new CompletableFuture<>()));
+    }
+
+    /**
+     * Queues the message and waits until it is committed, together with anything queued before it.
+     */
+    public void writeAndWait(Message message) {
+        enqueue(insert(message, true)).join();
+    }
+
+    private static Pending insert(Message message, boolean urgent) {
+        // Stamp the time of the turn, not of the flush
+        if (message.getCreatedAt() == null) message.setCreatedAt(OffsetDateTime.now());
+        return new Pending(message, null, urgent, new CompletableFuture<>());
+    }
+
+    private CompletableFuture<Void> enqueue(Pending pending) {
+        if (!running || !queue.offer(pending)) {
+            try {
+                apply(pending);
+                pending.done().complete(null);
+            } catch (Exception e) {
+                log.warn("Could not write message", e);
+                pending.done().completeExceptionally(e);
+            }
+        }
+        return pending.done();
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        running = false;
+        flusher.interrupt();
+        flusher.join(TimeUnit.SECONDS.toMillis(10));
+        // Anything the flusher did not get to
+        drainAndFlush();
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Pending first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                boolean urgent = first.urgent();
+                while (!urgent && batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                    urgent = next.urgent();
+                }
+            } catch (InterruptedException e) {
+                if (running) continue;
+            }
+            flush(batch);
+            batch = new ArrayList<>(batchSize);
+        }
+        flush(batch);
+    }
+
+    private void drainAndFlush() {
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        for (int i = 0; i < rest.size(); i += batchSize) {
+            flush(rest.subList(i, Math.min(rest.size(), i + batchSize)));
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        if (batch.isEmpty()) return;
+        List<Pending> inserts = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Pending p = batch.get(i);
+            if (p.update() == null) {
+                inserts.add(p);
+                continue;
+            }
+            insert(inserts);
+            inserts = new ArrayList<>();
+            // Only the latest checkpoint of a message in this batch needs writing
+            if (!supersededLater(batch, i)) applyOrFail(p);
+            else p.done().complete(null);
+        }
+        insert(inserts);
+        batchSizes.record(batch.size());
+    }
+
+    private void insert(List<Pending> inserts) {
+        if (inserts.isEmpty()) return;
+        try {
+            repository.saveAll(inserts.stream().map(Pending::message).toList());
+            inserts.forEach(p -> p.done().complete(null));
+        } catch (Exception e) {
+            log.warn("Batch insert of {} messages failed, saving one by one", inserts.size(), e);
+            for (Pending p : inserts) {
+                p.message().setId(null);
+                applyOrFail(p);
+            }
+        }
+    }
+
+    private void applyOrFail(Pending p) {
+        try {
+            apply(p);
+            p.done().complete(null);
+        } catch (Exception e) {
+            log.warn("Dropping message write", e);
+            p.done().completeExceptionally(e);
+        }
+    }
+
+    private void apply(Pending p) {
+        if (p.update() == null) {
+            repository.save(p.message());
+        } else {
+            repository.updateContent(p.update().messageId(), p.update().content(), p.update().status());
+        }
+    }
+
+    private static boolean supersededLater(List<Pending> batch, int index) {
+        Long id = batch.get(index).update().messageId();
+        for (int j = index + 1; j < batch.size(); j++) {
+            Update later = batch.get(j).update();
+            if (later != null && later.messageId().equals(id)) return true;
+        }
+        return false;
+    }
+
+    private record Update(Long messageId, String content, MessageStatus status) {}
+
+    private record Pending(Message message, Update update, boolean urgent, CompletableFuture<Void> done) {}
+}
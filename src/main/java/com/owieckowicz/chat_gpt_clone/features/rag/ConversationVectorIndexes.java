@@ -0,0 +1,166 @@
+package com.owieckowicz.chat_gpt_clone.features.rag;
+
+import com.owieckowicz.chat_gpt_clone.features.conversation.ConversationChangedEvent;
+import com.owieckowicz.chat_gpt_clone.features.rag.document.DocumentsChangedEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a partial HNSW index, {@code WHERE conversation_id = <id>}, for every conversation with at least
+ * {@code rag.storage.partial-index.threshold} chunks. Searches in such a conversation walk a graph of its
+ * own chunks only, so they return a full top-K however large the table grows. Retrieval only walks it
+ * once this instance has seen it built; smaller conversations, and those whose index is not built yet,
+ * are served by the {@code conversation_id} btree index and an exact sort.
+ * <p>
+ * With {@code rag.retrieval.quantized.enabled} such a conversation also gets a partial
+ * {@code bit_hamming_ops} index on {@code embedding_bq} for the quantized prefilter. Retrieval only
+ * walks it once this instance has seen it built; until then it scans the conversation's bit vectors.
+ * <p>
+ * Indexes are built concurrently, one at a time, off the ingestion thread, and dropped once the
+ * conversation falls below half the threshold.
+ */
+@Component
+@Slf4j
+public class ConversationVectorIndexes {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String schema;
+    private final String table;
+    private final boolean enabled;
+    private final int threshold;
+    private final boolean quantized;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("rag-partial-index").factory());
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+    private final Set<Long> floatIndexed = ConcurrentHashMap.newKeySet();
+    private final Set<Long> quantizedIndexed = ConcurrentHashMap.newKeySet();
+
+    public ConversationVectorIndexes(JdbcTemplate jdbcTemplate,
+                                     @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schema,
+                                     @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String table,
+                                     @Value("${rag.storage.partial-index.enabled:true}") boolean enabled,
+                                     @Value("${rag.storage.partial-index.threshold:10000}") int threshold,
+                                     @Value("${rag.retrieval.quantized.enabled:false}") boolean quantized) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.schema = schema;
+        this.table = table;
+        this.enabled = enabled;
+        this.threshold = Math.max(1, threshold);
+        this.quantized = quantized;
+    }
+
+    /**
+     * Whether the conversation has a valid partial index on {@code embedding}.
+     */
+    public boolean hasFloatIndex(Long conversationId) {
+        return floatIndexed.contains(conversationId);
+    }
+
+    /**
+     * Whether the conversation has a valid partial index on {@code embedding_bq}.
+     */
+    public boolean hasQuantizedIndex(Long conversationId) {
+        return quantizedIndexed.contains(conversationId);
+    }
+
+    /**
+     * Checks the conversations over the threshold and those that already have an index.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initialize() {
+        if (!enabled) return;
+        Set<Long> conversations = new LinkedHashSet<>(jdbcTemplate.queryForList(
+                "SELECT conversation_id FROM %s.%s WHERE conversation_id IS NOT NULL GROUP BY conversation_id HAVING count(*) >= ?"
+                        .formatted(schema, table), Long.class, threshold));
+        List<String> existing = jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE schemaname = ? AND tablename = ? AND indexname LIKE ?",
+                String.class, schema, table, table + "\\_conv\\_%\\_idx");
+        for (String name : existing) {
+            String id = name.substring((table + "_conv_").length()).replaceFirst("_embedding(_bq)?_idx$", "");
+            if (id.matches("[0-9]+")) conversations.add(Long.valueOf(id));
+        }
+        conversations.forEach(this::schedule);
+    }
+
+    @EventListener
+    public void onDocumentsChanged(DocumentsChangedEvent event) {
+        if (enabled) schedule(event.conversationId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConversationChanged(ConversationChangedEvent event) {
+        if (enabled && event.deleted()) schedule(event.conversationId());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void schedule(Long conversationId) {
+        // One pending check per conversation is enough, it reads the row count when it runs
+        if (conversationId == null || !queued.add(conversationId)) return;
+        executor.execute(() -> {
+            queued.remove(conversationId);
+            try {
+                reconcile(conversationId);
+            } catch (Exception e) {
+                log.warn("Could not update partial vector index of conversation {}", conversationId, e);
+            }
+        });
+    }
+
+    private void reconcile(Long conversationId) {
+        Integer rows = jdbcTemplate.queryForObject("SELECT count(*) FROM %s.%s WHERE conversation_id = ?"
+                .formatted(schema, table), Integer.class, conversationId);
+        int count = rows == null ? 0 : rows;
+        boolean floatIndex = reconcile(conversationId, count, table + "_conv_" + conversationId + "_embedding_idx",
+                "embedding vector_cosine_ops", true);
+        if (floatIndex) floatIndexed.add(conversationId);
+        else floatIndexed.remove(conversationId);
+        boolean bitIndex = reconcile(conversationId, count, table + "_conv_" + conversationId + "_embedding_bq_idx",
+                "embedding_bq bit_hamming_ops", quantized);
+        if (bitIndex) quantizedIndexed.add(conversationId);
+        else quantizedIndexed.remove(conversationId);
+    }
+
+    /**
+     * Builds or drops one partial index of the conversation; returns whether a valid one exists afterwards.
+     */
+    private boolean reconcile(Long conversationId, int count, String name, String column, boolean wanted) {
+        List<Boolean> valid = jdbcTemplate.queryForList("""
+                SELECT i.indisvalid FROM pg_index i
+                JOIN pg_class c ON c.oid = i.indexrelid
+                JOIN pg_namespace n ON n.oid = c.relnamespace
+                WHERE n.nspname = ? AND c.relname = ?""", Boolean.class, schema, name);
+        boolean exists = !valid.isEmpty();
+
+        // A failed concurrent build leaves an invalid index behind; drop it and build again
+        if (exists && (!wanted || count < threshold / 2 || !valid.get(0))) {
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS %s.%s".formatted(schema, name));
+            log.info("Dropped partial index {} of conversation {} ({} chunks)", name, conversationId, count);
+            exists = false;
+        }
+        if (!exists && wanted && count >= threshold) {
+            long start = System.nanoTime();
+            jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS %s ON %s.%s USING hnsw (%s) WHERE conversation_id = %d"
+                    .formatted(name, schema, table, column, conversationId));
+            log.info("Built partial index {} of conversation {} ({} chunks) in {} ms",
+                    name, conversationId, count, (System.nanoTime() - start) / 1_000_000);
+            exists = true;
+        }
+        return exists;
+    }
+}
@@ -0,0 +1,131 @@
+package com.owieckowicz.chat_gpt_clone.features.rag;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent, content-addressed embedding cache. Vectors are keyed by SHA-256 of
+ * (embedding model, chunk text), so identical chunks are only sent to the model once.
+ */
+@Component
+public class EmbeddingCache {
+
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final String model;
+    private final Counter hits;
+    private final Counter misses;
+
+    public EmbeddingCache(EmbeddingModel embeddingModel,
+                          JdbcTemplate jdbcTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${spring.ai.ollama.embedding.options.model:nomic-embed-text}") String model) {
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.model = model;
+        this.hits = meterRegistry.counter("rag.embedding.cache", "result", "hit");
+        this.misses = meterRegistry.counter("rag.embedding.cache", "result", "miss");
+    }
+
+    /**
+     * Embeds the texts, reusing stored vectors where possible. The result is in input order.
+     */
+    public List<float[]> embed(List<String> texts) {
+        List<String> keys = texts.stream().map(this::key).toList();
+        Map<String, float[]> found = load(keys);
+
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!found.containsKey(keys.get(i))) missing.putIfAbsent(keys.get(i), texts.get(i));
+        }
+        hits.increment(texts.size() - missing.size());
+        misses.increment(missing.size());
+
+        if (!missing.isEmpty()) {
+            List<String> missingKeys = new ArrayList<>(missing.keySet());
+            List<float[]> computed = embeddingModel.embed(new ArrayList<>(missing.values()));
+            Map<String, float[]> fresh = new HashMap<>();
+            for (int i = 0; i < missingKeys.size(); i++) fresh.put(missingKeys.get(i), computed.get(i));
+            store(fresh);
+            found.putAll(fresh);
+        }
+
+        List<float[]> out = new ArrayList<>(texts.size());
+        for (String k : keys) out.add(found.get(k));
+        return out;
+    }
+
+    private Map<String, float[]> load(List<String> keys) {
+        Map<String, float[]> found = new HashMap<>();
+        if (keys.isEmpty()) return found;
+        jdbcTemplate.query("SELECT content_hash, embedding FROM embedding_cache WHERE content_hash = ANY (?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", keys.toArray())),
+                rs -> {
+                    found.put(rs.getString(1), fromBytes(rs.getBytes(2)));
+                });
+        return found;
+    }
+
+    private void store(Map<String, float[]> vectors) {
+        List<Map.Entry<String, float[]>> entries = new ArrayList<>(vectors.entrySet());
+        jdbcTemplate.batchUpdate("INSERT INTO embedding_cache (content_hash, model, dimensions, embedding) " +
+                "VALUES (?, ?, ?, ?) ON CONFLICT (content_hash) DO NOTHING", new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                var e = entries.get(i);
+                ps.setString(1, e.getKey());
+                ps.setString(2, model);
+                ps.setInt(3, e.getValue().length);
+                ps.setBytes(4, toBytes(e.getValue()));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return entries.size();
+            }
+        });
+    }
+
+    private String key(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] toBytes(float[] vector) {
+        ByteBuffer buf = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buf.asFloatBuffer().put(vector);
+        return buf.array();
+    }
+
+    private static float[] fromBytes(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
@@ -0,0 +1,14 @@
+package com.owieckowicz.chat_gpt_clone.features.rag;
+
+/**
+ * Receives progress callbacks while a document is ingested.
+ */
+public interface IngestionListener {
+    IngestionListener NOOP = (chunksEmbedded, chunksTotal) -> {};
+
+    /**
+     * Called as chunks are stored. Stages overlap, so {@code chunksTotal} is the number of
+     * chunks produced so far and only becomes final once the whole document has been split.
+     */
+    void onProgress(int chunksEmbedded, int chunksTotal);
+}
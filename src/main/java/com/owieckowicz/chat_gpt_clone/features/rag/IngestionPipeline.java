@@ -0,0 +1,199 @@
+package com.owieckowicz.chat_gpt_clone.features.rag;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams one PDF through overlapping stages connected by bounded queues:
+ * page parsing, chunking, embedding (several workers, batched) and bulk insert.
+ * A full queue blocks the stage feeding it, so memory stays flat however large the document is.
+ */
+class IngestionPipeline {
+    private static final List<Document> END = Collections.unmodifiableList(new ArrayList<>());
+    private static final EmbeddedBatch END_BATCH = new EmbeddedBatch(List.of(), List.of());
+    private static final long STORE_IDLE_FLUSH_MS = 200;
+
+    private final TokenTextSplitter splitter;
+    private final EmbeddingCache embeddingCache;
+    private final PgVectorChunkWriter writer;
+    private final Settings settings;
+    private final IngestionListener listener;
+
+    private final BlockingQueue<List<Document>> pages;
+    private final BlockingQueue<List<Document>> toEmbed;
+    private final BlockingQueue<EmbeddedBatch> toStore;
+    private final AtomicInteger pageCount = new AtomicInteger();
+    private final AtomicInteger chunked = new AtomicInteger();
+    private final AtomicInteger stored = new AtomicInteger();
+
+    IngestionPipeline(TokenTextSplitter splitter,
+                      EmbeddingCache embeddingCache,
+                      PgVectorChunkWriter writer,
+                      Settings settings,
+                      IngestionListener listener) {
+        this.splitter = splitter;
+        this.embeddingCache = embeddingCache;
+        this.writer = writer;
+        this.settings = settings;
+        this.listener = listener;
+        this.pages = new ArrayBlockingQueue<>(settings.queueCapacity());
+        this.toEmbed = new ArrayBlockingQueue<>(settings.queueCapacity());
+        this.toStore = new ArrayBlockingQueue<>(settings.queueCapacity());
+    }
+
+    IngestionResult run(Path file, Map<String, Object> metadata) throws Exception {
+        long started = System.nanoTime();
+        ThreadFactory factory = Thread.ofPlatform()
+                .name("ingest-stage-", 0)
+                .daemon(true)
+                .priority(Thread.MIN_PRIORITY)
+                .factory();
+        try (ExecutorService stages = Executors.newThreadPerTaskExecutor(factory)) {
+            ExecutorCompletionService<Void> completion = new ExecutorCompletionService<>(stages);
+            List<Future<Void>> futures = new ArrayList<>();
+            futures.add(completion.submit(() -> parse(file, metadata)));
+            futures.add(completion.submit(this::split));
+            for (int i = 0; i < settings.embedConcurrency(); i++) {
+                futures.add(completion.submit(this::embed));
+            }
+            futures.add(completion.submit(this::store));
+
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    completion.take().get();
+                }
+            } catch (ExecutionException e) {
+                futures.forEach(f -> f.cancel(true));
+                if (e.getCause() instanceof Exception cause) throw cause;
+                throw e;
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+        }
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        return new IngestionResult(pageCount.get(), stored.get(), durationMs);
+    }
+
+    private Void parse(Path file, Map<String, Object> metadata) throws Exception {
+        try (PDDocument pdf = Loader.loadPDF(file.toFile())) {
+            PDFTextStripper stripper = new PDFTextStripper();
+            int pageTotal = pdf.getNumberOfPages();
+            for (int page = 1; page <= pageTotal; page++) {
+                stripper.setStartPage(page);
+                stripper.setEndPage(page);
+                String text = stripper.getText(pdf);
+                pageCount.incrementAndGet();
+                if (text == null || text.isBlank()) continue;
+
+                Map<String, Object> pageMetadata = new HashMap<>(metadata);
+                pageMetadata.put("page_number", page);
+                pages.put(List.of(new Document(text, pageMetadata)));
+            }
+        }
+        pages.put(END);
+        return null;
+    }
+
+    private Void split() throws InterruptedException {
+        List<Document> batch = new ArrayList<>(settings.embedBatchSize());
+        while (true) {
+            List<Document> page = pages.take();
+            if (page == END) break;
+            for (Document chunk : splitter.apply(page)) {
+                batch.add(chunk);
+                chunked.incrementAndGet();
+                if (batch.size() >= settings.embedBatchSize()) {
+                    toEmbed.put(batch);
+                    batch = new ArrayList<>(settings.embedBatchSize());
+                }
+            }
+        }
+        if (!batch.isEmpty()) toEmbed.put(batch);
+        for (int i = 0; i < settings.embedConcurrency(); i++) {
+            toEmbed.put(END);
+        }
+        report();
+        return null;
+    }
+
+    private Void embed() throws InterruptedException {
+        while (true) {
+            List<Document> batch = toEmbed.take();
+            if (batch == END) break;
+            List<float[]> embeddings = embeddingCache.embed(batch.stream().map(Document::getText).toList());
+            toStore.put(new EmbeddedBatch(batch, embeddings));
+        }
+        toStore.put(END_BATCH);
+        return null;
+    }
+
+    private Void store() throws InterruptedException {
+        int running = settings.embedConcurrency();
+        List<Document> chunks = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        while (running > 0) {
+            EmbeddedBatch batch = toStore.poll(STORE_IDLE_FLUSH_MS, TimeUnit.MILLISECONDS);
+            if (batch == null) {
+                // Embedding is the slow stage; flush what we have so progress keeps moving
+                if (!chunks.isEmpty()) {
+                    flush(chunks, embeddings);
+                    chunks = new ArrayList<>();
+                    embeddings = new ArrayList<>();
+                }
+                continue;
+            }
+            if (batch == END_BATCH) {
+                running--;
+                continue;
+            }
+            chunks.addAll(batch.chunks());
+            embeddings.addAll(batch.embeddings());
+            if (chunks.size() >= settings.insertBatchSize()) {
+                flush(chunks, embeddings);
+                chunks = new ArrayList<>();
+                embeddings = new ArrayList<>();
+            }
+        }
+        if (!chunks.isEmpty()) flush(chunks, embeddings);
+        return null;
+    }
+
+    private void flush(List<Document> chunks, List<float[]> embeddings) {
+        writer.write(chunks, embeddings);
+        stored.addAndGet(chunks.size());
+        report();
+    }
+
+    private synchronized void report() {
+        listener.onProgress(stored.get(), chunked.get());
+    }
+
+    private record EmbeddedBatch(List<Document> chunks, List<float[]> embeddings) {}
+
+    /**
+     * Stage sizing: embedding workers, chunks per embedding call, rows per insert and queue capacity.
+     */
+    record Settings(int embedConcurrency, int embedBatchSize, int insertBatchSize, int queueCapacity) {}
+}
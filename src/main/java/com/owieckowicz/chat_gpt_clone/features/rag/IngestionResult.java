@@ -0,0 +1,11 @@
+package com.owieckowicz.chat_gpt_clone.features.rag;
+
+/**
+ * Outcome of one document ingestion.
+ */
+public record IngestionResult(int pages, int chunks, long durationMs) {
+
+    public double chunksPerSecond() {
+        return durationMs <= 0 ? chunks : chunks * 1000.0 / durationMs;
+    }
+}
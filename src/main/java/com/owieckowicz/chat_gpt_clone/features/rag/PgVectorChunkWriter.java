@@ -0,0 +1,76 @@
+package com.owieckowicz.chat_gpt_clone.features.rag;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Bulk-inserts already embedded chunks into the pgvector table, bypassing the embedding
+ * step of {@code VectorStore.add}.
+ */
+@Component
+public class PgVectorChunkWriter {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final String table;
+
+    public PgVectorChunkWriter(JdbcTemplate jdbcTemplate,
+                               ObjectMapper objectMapper,
+                               @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schema,
+                               @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String table) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.table = schema + "." + table;
+    }
+
+    public void write(List<Document> chunks, List<float[]> embeddings) {
+        if (chunks.size() != embeddings.size()) {
+            throw new IllegalArgumentException("Got " + embeddings.size() + " embeddings for " + chunks.size() + " chunks");
+        }
+        String sql = "INSERT INTO " + table + " (id, content, metadata, embedding) VALUES (?, ?, ?::jsonb, ?) " +
+                "ON CONFLICT (id) DO UPDATE SET content = EXCLUDED.content, metadata = EXCLUDED.metadata, " +
+                "embedding = EXCLUDED.embedding";
+        jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Document chunk = chunks.get(i);
+                ps.setObject(1, toUuid(chunk.getId()));
+                ps.setString(2, chunk.getText());
+                ps.setString(3, toJson(chunk));
+                ps.setObject(4, new PGvector(embeddings.get(i)));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return chunks.size();
+            }
+        });
+    }
+
+    private String toJson(Document chunk) {
+        try {
+            return objectMapper.writeValueAsString(chunk.getMetadata());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize chunk metadata", e);
+        }
+    }
+
+    private static UUID toUuid(String id) {
+        try {
+            return UUID.fromString(id);
+        } catch (Exception e) {
+            return UUID.nameUUIDFromBytes(String.valueOf(id).getBytes());
+        }
+    }
+}
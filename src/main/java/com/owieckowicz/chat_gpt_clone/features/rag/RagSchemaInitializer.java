@@ -0,0 +1,37 @@
+package com.owieckowicz.chat_gpt_clone.features.rag;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates the RAG tables that are managed with plain JDBC rather than JPA.
+ * Statements are idempotent and run on every startup.
+ */
+@Component
+public class RagSchemaInitializer {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public RagSchemaInitializer(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    void initialize() {
+        jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS embedding_cache (
+                    content_hash varchar(64) PRIMARY KEY,
+                    model varchar(128) NOT NULL,
+                    dimensions int NOT NULL,
+                    embedding bytea NOT NULL,
+                    created_at timestamptz NOT NULL DEFAULT now()
+                )""");
+        // One row per one-off data migration that has run
+        jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS rag_migrations (
+                    name varchar(128) PRIMARY KEY,
+                    applied_at timestamptz NOT NULL DEFAULT now()
+                )""");
+    }
+}
@@ -1,46 +1,64 @@
 package com.owieckowicz.chat_gpt_clone.features.rag;
 
-import org.springframework.ai.document.Document;
-import org.springframework.ai.reader.pdf.PagePdfDocumentReader;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.Path;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
 @Service
+@Slf4j
 public class RagService {
 
     private final TokenTextSplitter splitter;
     private final VectorStore vectorStore;
+    private final EmbeddingCache embeddingCache;
+    private final PgVectorChunkWriter chunkWriter;
+    private final IngestionPipeline.Settings pipelineSettings;
 
-    public RagService(TokenTextSplitter splitter, VectorStore vectorStore) {
+    public RagService(TokenTextSplitter splitter,
+                      VectorStore vectorStore,
+                      EmbeddingCache embeddingCache,
+                      PgVectorChunkWriter chunkWriter,
+                      @Value("${rag.ingest.embed-concurrency:2}") int embedConcurrency,
+                      @Value("${rag.ingest.embed-batch-size:16}") int embedBatchSize,
+                      @Value("${rag.ingest.insert-batch-size:64}") int insertBatchSize,
+                      @Value("${rag.ingest.queue-capacity:8}") int queueCapacity) {
         this.splitter = splitter;
         this.vectorStore = vectorStore;
+        this.embeddingCache = embeddingCache;
+        this.chunkWriter = chunkWriter;
+        this.pipelineSettings = new IngestionPipeline.Settings(
+                Math.max(1, embedConcurrency),
+                Math.max(1, embedBatchSize),
+                Math.max(1, insertBatchSize),
+                Math.max(1, queueCapacity));
     }
 
-    public void ingestPdf(Long conversationId, Long documentId, Path file, String filename) {
-        Resource res = new FileSystemResource(file);
-        PagePdfDocumentReader reader = new PagePdfDocumentReader(res);
+    public IngestionResult ingestPdf(Long conversationId, Long documentId, Path file, String filename,
+                                     IngestionListener listener) throws Exception {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("conversationId", String.valueOf(conversationId));
+        metadata.put("documentId", String.valueOf(documentId));
+        metadata.put("file_name", file.getFileName().toString());
+        if (filename != null) metadata.put("filename", filename);
 
-        List<Document> docs = reader.get();
-        for (Document d : docs) {
-            d.getMetadata().put("conversationId", String.valueOf(conversationId));
-            d.getMetadata().put("documentId", String.valueOf(documentId));
-            if (filename != null) d.getMetadata().put("filename", filename);
-        }
-
-        List<Document> chunks = splitter.apply(docs);
+        IngestionResult result = new IngestionPipeline(splitter, embeddingCache, chunkWriter, pipelineSettings, listener)
+                .run(file, metadata);
+        log.info("Ingested document {}: {} pages, {} chunks in {} ms ({} chunks/s)",
+                documentId, result.pages(), result.chunks(), result.durationMs(),
+                String.format("%.1f", result.chunksPerSecond()));
+        return result;
+    }
 
-        final int batchSize = 4;
-        for (int i = 0; i < chunks.size(); i += batchSize) {
-            List<Document> batch = chunks.subList(i, Math.min(i + batchSize, chunks.size()));
-            vectorStore.add(batch);
-        }
+    /**
+     * Removes every chunk stored for the document, e.g. before re-running an interrupted ingestion.
+     */
+    public void deleteDocumentChunks(Long documentId) {
+        vectorStore.delete("documentId == '" + documentId + "'");
     }
 }
-
-
@@ -0,0 +1,330 @@
+package com.owieckowicz.chat_gpt_clone.features.rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.owieckowicz.chat_gpt_clone.common.cache.LruCache;
+import com.owieckowicz.chat_gpt_clone.features.conversation.ConversationChangedEvent;
+import com.owieckowicz.chat_gpt_clone.features.rag.document.DocumentsChangedEvent;
+import com.owieckowicz.chat_gpt_clone.features.rag.hnsw.HnswVectorStore;
+import com.pgvector.PGvector;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Search over a conversation's document chunks, with two caches in front of it:
+ * query embeddings by (embedding model, text), and top-K results by (conversation, query hash, topK).
+ * Result entries of a conversation are dropped whenever its documents change.
+ * <p>
+ * In {@code hybrid} mode (the default) a pgvector cosine search and a Postgres full-text search each
+ * return a few candidates per wanted result, and the two rankings are merged with reciprocal rank
+ * fusion: a chunk scores {@code sum 1 / (rrf-k + rank)} over the lists it appears in. In {@code vector}
+ * mode only the cosine search runs.
+ * <p>
+ * With {@code rag.retrieval.quantized.enabled} the cosine search first picks candidates on a
+ * binary-quantized copy of the embeddings and re-ranks only those with the full vectors.
+ */
+@Service
+@Slf4j
+public class RetrievalService {
+    private static final TypeReference<Map<String, Object>> METADATA = new TypeReference<>() {};
+    private static final int MAX_EF_SEARCH = 1000;
+
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ConversationVectorIndexes vectorIndexes;
+    private final ObjectMapper objectMapper;
+    private final String model;
+    private final String table;
+    private final boolean hybrid;
+    private final String textSearchConfig;
+    private final int candidatesPerResult;
+    private final int rrfK;
+    private volatile boolean lexicalAvailable = true;
+    private final HnswVectorStore hnswVectorStore;
+    private final int quantizedDimensions;
+    private final int rerankFactor;
+    private final LruCache<String, float[]> embeddings;
+    private final LruCache<ResultKey, List<Document>> results;
+    // Bumped on every invalidation so a search racing with a document change does not cache the old result
+    private final AtomicLong generation = new AtomicLong();
+
+    public RetrievalService(EmbeddingModel embeddingModel,
+                            JdbcTemplate jdbcTemplate,
+                            TransactionTemplate transactionTemplate,
+                            ConversationVectorIndexes vectorIndexes,
+                            ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            ObjectProvider<HnswVectorStore> hnswVectorStore,
+                            @Value("${spring.ai.ollama.embedding.options.model:nomic-embed-text}") String model,
+                            @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schema,
+                            @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String table,
+                            @Value("${rag.retrieval.mode:hybrid}") String mode,
+                            @Value("${rag.retrieval.text-search-config:english}") String textSearchConfig,
+                            @Value("${rag.retrieval.hybrid.candidates-per-result:4}") int candidatesPerResult,
+                            @Value("${rag.retrieval.hybrid.rrf-k:60}") int rrfK,
+                            @Value("${rag.retrieval.quantized.enabled:false}") boolean quantized,
+                            @Value("${rag.retrieval.quantized.dimensions:768}") int quantizedDimensions,
+                            @Value("${rag.retrieval.quantized.rerank-factor:10}") int rerankFactor,
+                            @Value("${rag.retrieval.embedding-cache.ttl:1h}") Duration embeddingTtl,
+                            @Value("${rag.retrieval.embedding-cache.max-entries:5000}") int embeddingEntries,
+                            @Value("${rag.retrieval.result-cache.ttl:10m}") Duration resultTtl,
+                            @Value("${rag.retrieval.result-cache.max-entries:2000}") int resultEntries) {
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.vectorIndexes = vectorIndexes;
+        this.objectMapper = objectMapper;
+        this.model = model;
+        this.table = schema + "." + table;
+        this.hnswVectorStore = hnswVectorStore.getIfAvailable();
+        this.quantizedDimensions = quantized ? quantizedDimensions : 0;
+        this.rerankFactor = Math.max(1, rerankFactor);
+        this.hybrid = !"vector".equalsIgnoreCase(mode);
+        this.textSearchConfig = textSearchConfig;
+        this.candidatesPerResult = Math.max(1, candidatesPerResult);
+        this.rrfK = Math.max(1, rrfK);
+        this.embeddings = LruCache.<String, float[]>ofSize(embeddingEntries, embeddingTtl)
+                .bindTo(meterRegistry, "rag.query.embedding");
+        this.results = LruCache.<ResultKey, List<Document>>ofSize(resultEntries, resultTtl)
+                .bindTo(meterRegistry, "rag.retrieval.results");
+    }
+
+    /**
+     * The {@code topK} chunks of the conversation's documents that best match the query, best first.
+     */
+    public List<Document> retrieve(Long conversationId, String query, int topK) {
+        String text = query.strip();
+        ResultKey key = new ResultKey(conversationId, sha256(text), topK);
+        List<Document> cached = results.get(key);
+        if (cached != null) return cached;
+
+        long seen = generation.get();
+        List<Document> found = List.copyOf(hybrid ? hybridSearch(conversationId, text, topK)
+                : vectorSearch(conversationId, embed(text), topK));
+        if (generation.get() == seen) results.put(key, found);
+        return found;
+    }
+
+    @EventListener
+    public void onDocumentsChanged(DocumentsChangedEvent event) {
+        invalidate(event.conversationId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConversationChanged(ConversationChangedEvent event) {
+        if (event.deleted()) invalidate(event.conversationId());
+    }
+
+    private void invalidate(Long conversationId) {
+        generation.incrementAndGet();
+        results.invalidateIf(k -> k.conversationId().equals(conversationId));
+    }
+
+    private float[] embed(String text) {
+        String key = model + "\u0000" + text;
+        float[] cached = embeddings.get(key);
+        if (cached != null) return cached;
+        float[] vector = embeddingModel.embed(text);
+        embeddings.put(key, vector);
+        return vector;
+    }
+
+    private List<Document> hybridSearch(Long conversationId, String text, int topK) {
+        int candidates = topK * candidatesPerResult;
+        List<Document> vector = vectorSearch(conversationId, embed(text), candidates);
+        List<Document> lexical = lexicalSearch(conversationId, text, candidates);
+        if (lexical.isEmpty()) return vector.subList(0, Math.min(topK, vector.size()));
+
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, Document> byId = new LinkedHashMap<>();
+        for (List<Document> ranking : List.of(vector, lexical)) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document d = ranking.get(rank);
+                scores.merge(d.getId(), 1.0 / (rrfK + rank + 1), Double::sum);
+                // Keep the vector row when a chunk is in both, it carries the distance
+                byId.putIfAbsent(d.getId(), d);
+            }
+        }
+        return byId.values().stream()
+                .sorted(Comparator.comparingDouble((Document d) -> scores.get(d.getId())).reversed())
+                .limit(topK)
+                .map(d -> Document.builder().id(d.getId()).text(d.getText()).metadata(d.getMetadata())
+                        .score(scores.get(d.getId())).build())
+                .toList();
+    }
+
+    /**
+     * Cosine search within the conversation, filtered on the typed {@code conversation_id} column.
+     * With the in-process HNSW store enabled the search runs there instead of in Postgres.
+     * A conversation without its own partial index is sorted exactly: walking the table-wide HNSW index
+     * and filtering afterwards would leave a small conversation with few or no results.
+     */
+    private List<Document> vectorSearch(Long conversationId, float[] vector, int limit) {
+        if (hnswVectorStore != null) return hnswVectorStore.search(conversationId, vector, limit);
+        if (quantizedDimensions > 0) return quantizedSearch(conversationId, vector, limit);
+        PGvector query = new PGvector(vector);
+        if (!vectorIndexes.hasFloatIndex(conversationId)) {
+            // "+ 0" keeps the planner from ordering through the table-wide index on embedding
+            return jdbcTemplate.query("""
+                            SELECT id, content, metadata::text, embedding <=> ? AS distance
+                            FROM %s
+                            WHERE conversation_id = ?
+                            ORDER BY (embedding <=> ?) + 0
+                            LIMIT ?""".formatted(table),
+                    this::vectorRow,
+                    query, conversationId, query, limit);
+        }
+        return transactionTemplate.execute(status -> {
+            // The id is inlined so the planner matches the partial index, which returns at most ef_search rows
+            jdbcTemplate.execute("SET LOCAL hnsw.ef_search = " + Math.max(40, Math.min(MAX_EF_SEARCH, limit)));
+            return jdbcTemplate.query("""
+                            SELECT id, content, metadata::text, embedding <=> ? AS distance
+                            FROM %s
+                            WHERE conversation_id = %d
+                            ORDER BY embedding <=> ?
+                            LIMIT ?""".formatted(table, conversationId),
+                    this::vectorRow,
+                    query, query, limit);
+        });
+    }
+
+    /**
+     * Takes {@code limit * rerank-factor} candidates by Hamming distance on the binary-quantized
+     * {@code embedding_bq} column, then orders only those by full-precision cosine distance.
+     * The candidates come from an exact scan of the conversation's rows, found through the
+     * {@code conversation_id} index: a table-wide bit index would return its nearest rows before the
+     * conversation filter, leaving a small conversation with few or no candidates. A conversation with
+     * its own partial bit index is searched through that index instead.
+     */
+    private List<Document> quantizedSearch(Long conversationId, float[] vector, int limit) {
+        if (vectorIndexes.hasQuantizedIndex(conversationId)) return indexedQuantizedSearch(conversationId, vector, limit);
+        PGvector query = new PGvector(vector);
+        // "+ 0" keeps the planner from ordering through an index on embedding_bq
+        return jdbcTemplate.query("""
+                        SELECT id, content, metadata::text, embedding <=> ? AS distance
+                        FROM (
+                            SELECT id, content, metadata, embedding
+                            FROM %s
+                            WHERE conversation_id = ?
+                            ORDER BY (embedding_bq <~> binary_quantize(?::vector)::bit(%d)) + 0
+                            LIMIT ?
+                        ) candidates
+                        ORDER BY distance
+                        LIMIT ?""".formatted(table, quantizedDimensions),
+                this::vectorRow,
+                query, conversationId, query, limit * rerankFactor, limit);
+    }
+
+    /**
+     * The quantized search through the conversation's partial {@code embedding_bq} index. The id is
+     * inlined so the planner matches the index, and {@code hnsw.ef_search} is raised for this query so
+     * the graph walk can return all the candidates asked for.
+     */
+    private List<Document> indexedQuantizedSearch(Long conversationId, float[] vector, int limit) {
+        PGvector query = new PGvector(vector);
+        int candidates = Math.min(MAX_EF_SEARCH, limit * rerankFactor);
+        return transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("SET LOCAL hnsw.ef_search = " + Math.max(40, candidates));
+            return jdbcTemplate.query("""
+                            SELECT id, content, metadata::text, embedding <=> ? AS distance
+                            FROM (
+                                SELECT id, content, metadata, embedding
+                                FROM %s
+                                WHERE conversation_id = %d
+                                ORDER BY embedding_bq <~> binary_quantize(?::vector)::bit(%d)
+                                LIMIT ?
+                            ) candidates
+                            ORDER BY distance
+                            LIMIT ?""".formatted(table, conversationId, quantizedDimensions),
+                    this::vectorRow,
+                    query, query, candidates, limit);
+        });
+    }
+
+    private Document vectorRow(ResultSet rs, int rowNum) throws SQLException {
+        double distance = rs.getDouble(4);
+        Map<String, Object> metadata = new HashMap<>(readMetadata(rs.getString(3)));
+        metadata.put("distance", distance);
+        return Document.builder()
+                .id(rs.getString(1))
+                .text(rs.getString(2))
+                .metadata(metadata)
+                .score(1.0 - distance)
+                .build();
+    }
+
+    /**
+     * Full-text match over the generated {@code content_tsv} column, ranked by cover density.
+     * Empty if the column is missing; the schema initializer logs why.
+     */
+    private List<Document> lexicalSearch(Long conversationId, String text, int limit) {
+        if (!lexicalAvailable) return List.of();
+        try {
+            return jdbcTemplate.query("""
+                            SELECT id, content, metadata::text, ts_rank_cd(content_tsv, q) AS rank
+                            FROM %s, websearch_to_tsquery(?::regconfig, ?) q
+                            WHERE conversation_id = ? AND content_tsv @@ q
+                            ORDER BY rank DESC
+                            LIMIT ?""".formatted(table),
+                    (rs, i) -> {
+                        Map<String, Object> metadata = new HashMap<>(readMetadata(rs.getString(3)));
+                        metadata.put("textRank", rs.getDouble(4));
+                        return Document.builder()
+                                .id(rs.getString(1))
+                                .text(rs.getString(2))
+                                .metadata(metadata)
+                                .build();
+                    },
+                    textSearchConfig, text, conversationId, limit);
+        } catch (BadSqlGrammarException e) {
+            lexicalAvailable = false;
+            log.warn("Full-text search unavailable, using vector search only", e);
+            return List.of();
+        }
+    }
+
+    private Map<String, Object> readMetadata(String json) {
+        if (json == null) return Map.of();
+        try {
+            return objectMapper.readValue(json, METADATA);
+        } catch (Exception e) {
+            return Map.of();
+        }
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record ResultKey(Long conversationId, String queryHash, int topK) {}
+}
@@ -0,0 +1,78 @@
+package com.owieckowicz.chat_gpt_clone.features.rag;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adds the columns and indexes retrieval needs on top of the table the pgvector store creates.
+ * Runs after the vector store has initialized its schema; statements are idempotent.
+ */
+@Component
+@DependsOn("vectorStore")
+@Slf4j
+public class VectorStoreSchemaInitializer {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String schema;
+    private final String table;
+    private final String textSearchConfig;
+    private final int quantizedDimensions;
+
+    public VectorStoreSchemaInitializer(JdbcTemplate jdbcTemplate,
+                                        @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schema,
+                                        @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String table,
+                                        @Value("${rag.retrieval.text-search-config:english}") String textSearchConfig,
+                                        @Value("${rag.retrieval.quantized.enabled:false}") boolean quantized,
+                                        @Value("${rag.retrieval.quantized.dimensions:768}") int quantizedDimensions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.quantizedDimensions = quantized ? quantizedDimensions : 0;
+        this.schema = schema;
+        this.table = table;
+        if (!textSearchConfig.matches("[a-z_]+")) {
+            throw new IllegalArgumentException("Invalid rag.retrieval.text-search-config: " + textSearchConfig);
+        }
+        this.textSearchConfig = textSearchConfig;
+    }
+
+    @PostConstruct
+    void initialize() {
+        // Typed copy of the conversationId metadata key; adding it rewrites the table, which fills in
+        // existing rows, and Postgres sets it on every later insert whichever writer stores the chunk
+        jdbcTemplate.execute("""
+                ALTER TABLE %s.%s ADD COLUMN IF NOT EXISTS conversation_id bigint
+                    GENERATED ALWAYS AS (CASE WHEN metadata->>'conversationId' ~ '^[0-9]{1,18}$'
+                        THEN (metadata->>'conversationId')::bigint END) STORED"""
+                .formatted(schema, table));
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS %s_conversation_id_idx ON %s.%s (conversation_id)"
+                .formatted(table, schema, table));
+        try {
+            // Maintained by Postgres on every insert/update, so the chunk writers need no changes
+            jdbcTemplate.execute("""
+                    ALTER TABLE %s.%s ADD COLUMN IF NOT EXISTS content_tsv tsvector
+                        GENERATED ALWAYS AS (to_tsvector('%s'::regconfig, coalesce(content, ''))) STORED"""
+                    .formatted(schema, table, textSearchConfig));
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS %s_content_tsv_idx ON %s.%s USING gin (content_tsv)"
+                    .formatted(table, schema, table));
+        } catch (Exception e) {
+            log.warn("Full-text column on {}.{} not available, retrieval falls back to vector search", schema, table, e);
+        }
+        if (quantizedDimensions > 0) addQuantizedEmbeddings();
+    }
+
+    /**
+     * One bit per dimension, derived by Postgres on insert; 32 times smaller than the float vector.
+     * Unlike the full-text column this is required once enabled.
+     */
+    private void addQuantizedEmbeddings() {
+        jdbcTemplate.execute("""
+                ALTER TABLE %s.%s ADD COLUMN IF NOT EXISTS embedding_bq bit(%d)
+                    GENERATED ALWAYS AS (binary_quantize(embedding)::bit(%d)) STORED"""
+                .formatted(schema, table, quantizedDimensions, quantizedDimensions));
+        // Searches are always scoped to one conversation, which a table-wide bit index cannot serve
+        jdbcTemplate.execute("DROP INDEX IF EXISTS %s.%s_embedding_bq_idx".formatted(schema, table));
+    }
+}
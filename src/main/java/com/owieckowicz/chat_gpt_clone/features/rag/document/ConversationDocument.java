@@ -0,0 +1,57 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.document;
+
+import jakarta.persistence.*;
+import java.time.OffsetDateTime;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Registry entry for a document uploaded to a conversation. Its id is the {@code documentId}
+ * stored in the metadata of every chunk in the vector store.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "documents", indexes = {
+        @Index(name = "idx_documents_conversation", columnList = "conversation_id, created_at"),
+        @Index(name = "idx_documents_conversation_hash", columnList = "conversation_id, file_hash")
+})
+public class ConversationDocument {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long conversationId;
+
+    private String filename;
+
+    private long sizeBytes;
+
+    @Column(length = 64)
+    private String fileHash; // SHA-256 of the uploaded file
+
+    @Column(length = 1024)
+    private String storagePath;
+
+    private int chunkCount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private DocumentStatus status;
+
+    private OffsetDateTime createdAt;
+    private OffsetDateTime updatedAt;
+
+    @PrePersist
+    void onCreate() {
+        this.createdAt = OffsetDateTime.now();
+        this.updatedAt = this.createdAt;
+        if (this.status == null) this.status = DocumentStatus.PROCESSING;
+    }
+
+    @PreUpdate
+    void onUpdate() {
+        this.updatedAt = OffsetDateTime.now();
+    }
+}
@@ -0,0 +1,32 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.document;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface ConversationDocumentRepository extends JpaRepository<ConversationDocument, Long> {
+    List<ConversationDocument> findByConversationIdOrderByCreatedAtAsc(Long conversationId);
+
+    Optional<ConversationDocument> findByIdAndConversationId(Long id, Long conversationId);
+
+    List<ConversationDocument> findByStatus(DocumentStatus status);
+
+    Optional<ConversationDocument> findFirstByConversationIdAndFileHashAndStatusNotOrderByIdDesc(Long conversationId,
+                                                                                                String fileHash,
+                                                                                                DocumentStatus status);
+
+    @Transactional
+    @Modifying
+    @Query("update ConversationDocument d set d.status = :status, d.chunkCount = :chunkCount, d.updatedAt = :now " +
+            "where d.id = :id")
+    int updateStatus(@Param("id") Long id,
+                     @Param("status") DocumentStatus status,
+                     @Param("chunkCount") int chunkCount,
+                     @Param("now") OffsetDateTime now);
+}
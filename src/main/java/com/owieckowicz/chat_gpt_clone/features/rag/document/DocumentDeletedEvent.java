@@ -0,0 +1,7 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.document;
+
+/**
+ * Published when a document is deleted, before its registry row and chunks are removed, so a
+ * running ingestion of it can stop writing.
+ */
+public record DocumentDeletedEvent(Long conversationId, Long documentId) {}
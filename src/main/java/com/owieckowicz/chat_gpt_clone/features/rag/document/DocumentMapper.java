@@ -0,0 +1,20 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.document;
+
+import org.springframework.stereotype.Component;
+
+@Component
+public class DocumentMapper {
+    public DocumentResponse toResponse(ConversationDocument entity) {
+        if (entity == null) return null;
+        return new DocumentResponse(
+                entity.getId(),
+                entity.getConversationId(),
+                entity.getFilename(),
+                entity.getSizeBytes(),
+                entity.getChunkCount(),
+                entity.getStatus(),
+                entity.getCreatedAt(),
+                entity.getUpdatedAt()
+        );
+    }
+}
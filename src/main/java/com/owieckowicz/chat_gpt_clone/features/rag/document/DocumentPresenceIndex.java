@@ -0,0 +1,38 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.document;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory answer to "does this conversation have ingested documents?" for the chat hot path.
+ * Maintained by {@link DocumentService} and rebuilt from the registry at startup.
+ */
+@Component
+public class DocumentPresenceIndex {
+
+    private final Map<Long, Set<Long>> readyDocuments = new ConcurrentHashMap<>();
+
+    public boolean hasDocuments(Long conversationId) {
+        Set<Long> docs = readyDocuments.get(conversationId);
+        return docs != null && !docs.isEmpty();
+    }
+
+    void add(Long conversationId, Long documentId) {
+        readyDocuments.computeIfAbsent(conversationId, k -> ConcurrentHashMap.newKeySet()).add(documentId);
+    }
+
+    void remove(Long conversationId, Long documentId) {
+        readyDocuments.computeIfPresent(conversationId, (k, docs) -> {
+            docs.remove(documentId);
+            return docs.isEmpty() ? null : docs;
+        });
+    }
+
+    void replaceAll(Map<Long, ? extends Set<Long>> snapshot) {
+        readyDocuments.clear();
+        snapshot.forEach((conversationId, docs) -> docs.forEach(d -> add(conversationId, d)));
+    }
+}
@@ -0,0 +1,14 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.document;
+
+import java.time.OffsetDateTime;
+
+public record DocumentResponse(
+        Long documentId,
+        Long conversationId,
+        String filename,
+        long sizeBytes,
+        int chunkCount,
+        DocumentStatus status,
+        OffsetDateTime createdAt,
+        OffsetDateTime updatedAt
+) {}
@@ -0,0 +1,182 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.document;
+
+import com.owieckowicz.chat_gpt_clone.features.rag.RagService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Maintains the {@code documents} registry: one row per uploaded document, kept up to date by ingestion.
+ */
+@Service
+@Slf4j
+public class DocumentService {
+    private static final String BACKFILL_MIGRATION = "documents-from-vector-store";
+
+    private final ConversationDocumentRepository repository;
+    private final DocumentMapper mapper;
+    private final DocumentPresenceIndex presenceIndex;
+    private final RagService ragService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher events;
+    private final String vectorTable;
+
+    public DocumentService(ConversationDocumentRepository repository,
+                           DocumentMapper mapper,
+                           DocumentPresenceIndex presenceIndex,
+                           RagService ragService,
+                           JdbcTemplate jdbcTemplate,
+                           TransactionTemplate transactionTemplate,
+                           ApplicationEventPublisher events,
+                           @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schema,
+                           @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String table) {
+        this.repository = repository;
+        this.mapper = mapper;
+        this.presenceIndex = presenceIndex;
+        this.ragService = ragService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.events = events;
+        this.vectorTable = schema + "." + table;
+    }
+
+    public DocumentResponse register(Long conversationId, String filename, long sizeBytes, String fileHash, String storagePath) {
+        ConversationDocument doc = new ConversationDocument();
+        doc.setConversationId(conversationId);
+        doc.setFilename(filename);
+        doc.setSizeBytes(sizeBytes);
+        doc.setFileHash(fileHash);
+        doc.setStoragePath(storagePath);
+        doc.setStatus(DocumentStatus.PROCESSING);
+        return mapper.toResponse(repository.save(doc));
+    }
+
+    /**
+     * Finds a document with the same content in the conversation that is processing or ready.
+     */
+    public Optional<DocumentResponse> findDuplicate(Long conversationId, String fileHash) {
+        return repository.findFirstByConversationIdAndFileHashAndStatusNotOrderByIdDesc(conversationId, fileHash, DocumentStatus.FAILED)
+                .map(mapper::toResponse);
+    }
+
+    public List<DocumentResponse> list(Long conversationId) {
+        return repository.findByConversationIdOrderByCreatedAtAsc(conversationId)
+                .stream().map(mapper::toResponse).toList();
+    }
+
+    public Optional<DocumentResponse> get(Long conversationId, Long documentId) {
+        return repository.findByIdAndConversationId(documentId, conversationId).map(mapper::toResponse);
+    }
+
+    public void markProcessing(Long conversationId, Long documentId) {
+        repository.updateStatus(documentId, DocumentStatus.PROCESSING, 0, OffsetDateTime.now());
+        presenceIndex.remove(conversationId, documentId);
+        events.publishEvent(new DocumentsChangedEvent(conversationId));
+    }
+
+    public boolean exists(Long documentId) {
+        return repository.existsById(documentId);
+    }
+
+    /**
+     * Returns false if the document was deleted meanwhile; its chunks are then the caller's to remove.
+     */
+    public boolean markReady(Long conversationId, Long documentId, int chunkCount) {
+        if (repository.updateStatus(documentId, DocumentStatus.READY, chunkCount, OffsetDateTime.now()) == 0) return false;
+        presenceIndex.add(conversationId, documentId);
+        events.publishEvent(new DocumentsChangedEvent(conversationId));
+        return true;
+    }
+
+    public void markFailed(Long conversationId, Long documentId) {
+        if (repository.updateStatus(documentId, DocumentStatus.FAILED, 0, OffsetDateTime.now()) == 0) return;
+        presenceIndex.remove(conversationId, documentId);
+        events.publishEvent(new DocumentsChangedEvent(conversationId));
+    }
+
+    /**
+     * Removes the document's registry entry, chunks and stored file. A running ingestion of it is
+     * told to stop first; the row goes before the chunks so it cannot be marked ready in between.
+     */
+    public boolean delete(Long conversationId, Long documentId) {
+        ConversationDocument doc = repository.findByIdAndConversationId(documentId, conversationId).orElse(null);
+        if (doc == null) return false;
+        events.publishEvent(new DocumentDeletedEvent(conversationId, documentId));
+        repository.delete(doc);
+        presenceIndex.remove(conversationId, documentId);
+        ragService.deleteDocumentChunks(documentId);
+        if (doc.getStoragePath() != null) {
+            try {
+                Files.deleteIfExists(Path.of(doc.getStoragePath()));
+            } catch (IOException e) {
+                log.warn("Could not delete stored file {}", doc.getStoragePath(), e);
+            }
+        }
+        events.publishEvent(new DocumentsChangedEvent(conversationId));
+        return true;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initialize() {
+        backfillFromVectorStore();
+        rebuildPresenceIndex();
+    }
+
+    private void rebuildPresenceIndex() {
+        Map<Long, Set<Long>> snapshot = new HashMap<>();
+        for (ConversationDocument doc : repository.findByStatus(DocumentStatus.READY)) {
+            snapshot.computeIfAbsent(doc.getConversationId(), k -> new HashSet<>()).add(doc.getId());
+        }
+        presenceIndex.replaceAll(snapshot);
+        log.info("Document presence index loaded for {} conversations", snapshot.size());
+    }
+
+    /**
+     * One-time migration: documents ingested before the registry existed are only known from
+     * chunk metadata. Register them once, keeping their ids so stored chunks stay linked.
+     * Guarded by a row in {@code rag_migrations}, written in the same transaction, rather than by the
+     * registry being empty, which an upload arriving during startup would break.
+     */
+    private void backfillFromVectorStore() {
+        try {
+            transactionTemplate.executeWithoutResult(status -> backfill());
+        } catch (Exception e) {
+            log.warn("Document registry backfill skipped", e);
+        }
+    }
+
+    private void backfill() {
+        int claimed = jdbcTemplate.update("INSERT INTO rag_migrations (name) VALUES (?) ON CONFLICT (name) DO NOTHING",
+                BACKFILL_MIGRATION);
+        if (claimed == 0) return;
+        int rows = jdbcTemplate.update("""
+                INSERT INTO documents (id, conversation_id, filename, size_bytes, chunk_count, status, created_at, updated_at)
+                SELECT (metadata->>'documentId')::bigint, (metadata->>'conversationId')::bigint,
+                       max(metadata->>'filename'), 0, count(*), 'READY', now(), now()
+                FROM %s
+                WHERE metadata->>'documentId' ~ '^[0-9]+$' AND metadata->>'conversationId' ~ '^[0-9]+$'
+                GROUP BY 1, 2
+                ON CONFLICT (id) DO NOTHING""".formatted(vectorTable));
+        if (rows > 0) {
+            jdbcTemplate.execute("SELECT setval(pg_get_serial_sequence('documents', 'id'), (SELECT max(id) FROM documents))");
+            log.info("Registered {} documents found in {}", rows, vectorTable);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.document;
+
+public enum DocumentStatus {
+    PROCESSING,
+    READY,
+    FAILED
+}
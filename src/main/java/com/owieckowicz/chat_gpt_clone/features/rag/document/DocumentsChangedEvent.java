@@ -0,0 +1,7 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.document;
+
+/**
+ * Published when a conversation's searchable documents may have changed: a document started or
+ * finished ingestion, failed, or was deleted.
+ */
+public record DocumentsChangedEvent(Long conversationId) {}
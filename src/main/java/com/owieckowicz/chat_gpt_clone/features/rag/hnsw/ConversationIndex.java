@@ -0,0 +1,123 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.hnsw;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.document.Document;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The chunks of one conversation with their HNSW graph. Built once, then read-only: any change to the
+ * conversation's documents replaces the whole index. Vectors are in {@code vectors.f32}, chunk text and
+ * metadata in {@code chunks.jsonl}, both in slot order, and graph links in {@code graph.bin}.
+ */
+final class ConversationIndex implements AutoCloseable {
+    static final String VECTORS = "vectors.f32";
+    static final String CHUNKS = "chunks.jsonl";
+    static final String GRAPH = "graph.bin";
+
+    private final VectorFile vectors;
+    private final HnswGraph graph;
+    private final List<Chunk> chunks;
+
+    private ConversationIndex(VectorFile vectors, HnswGraph graph, List<Chunk> chunks) {
+        this.vectors = vectors;
+        this.graph = graph;
+        this.chunks = chunks;
+    }
+
+    static ConversationIndex empty() {
+        return new ConversationIndex(null, null, List.of());
+    }
+
+    /**
+     * Writes the chunks to {@code dir} and builds the graph.
+     */
+    static ConversationIndex build(Path dir, List<Chunk> chunks, List<float[]> embeddings,
+                                   int m, int efConstruction, ObjectMapper objectMapper) throws IOException {
+        if (chunks.isEmpty()) return empty();
+        Files.createDirectories(dir);
+        VectorFile vectors = VectorFile.create(dir.resolve(VECTORS), embeddings.get(0).length);
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve(CHUNKS))) {
+            HnswGraph graph = new HnswGraph(vectors, m, efConstruction);
+            for (int i = 0; i < chunks.size(); i++) {
+                graph.insert(vectors.append(embeddings.get(i)));
+                out.write(objectMapper.writeValueAsString(chunks.get(i)));
+                out.newLine();
+            }
+            vectors.force();
+            graph.write(dir.resolve(GRAPH));
+            return new ConversationIndex(vectors, graph, List.copyOf(chunks));
+        } catch (IOException | RuntimeException e) {
+            vectors.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the stored vectors and reads the graph, or returns null if the files are missing or disagree.
+     * A missing graph file is rebuilt from the vectors.
+     */
+    static ConversationIndex load(Path dir, int m, int efConstruction, ObjectMapper objectMapper) throws IOException {
+        Path vectorPath = dir.resolve(VECTORS);
+        Path chunkPath = dir.resolve(CHUNKS);
+        if (!Files.exists(vectorPath) || !Files.exists(chunkPath)) return null;
+        List<Chunk> chunks = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(chunkPath)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isBlank()) chunks.add(objectMapper.readValue(line, Chunk.class));
+            }
+        }
+        VectorFile vectors = VectorFile.open(vectorPath);
+        if (vectors.size() != chunks.size()) {
+            vectors.close();
+            return null;
+        }
+        Path graphPath = dir.resolve(GRAPH);
+        HnswGraph graph = Files.exists(graphPath) ? HnswGraph.read(graphPath, vectors, m, efConstruction) : null;
+        if (graph == null) {
+            graph = new HnswGraph(vectors, m, efConstruction);
+            for (int slot = 0; slot < vectors.size(); slot++) graph.insert(slot);
+            graph.write(graphPath);
+        }
+        return new ConversationIndex(vectors, graph, chunks);
+    }
+
+    int size() {
+        return chunks.size();
+    }
+
+    /**
+     * The {@code topK} most similar chunks with a similarity of at least {@code threshold}, best first.
+     */
+    List<Document> search(float[] query, int topK, int ef, double threshold) {
+        if (graph == null) return List.of();
+        if (query.length != vectors.dimensions()) {
+            throw new IllegalArgumentException("Query has " + query.length + " dimensions, index has " + vectors.dimensions());
+        }
+        List<Document> out = new ArrayList<>(topK);
+        for (HnswGraph.Scored hit : graph.search(VectorFile.unit(query), topK, ef)) {
+            if (hit.similarity() < threshold) continue;
+            Chunk chunk = chunks.get(hit.node());
+            Map<String, Object> metadata = new HashMap<>(chunk.metadata());
+            metadata.put("distance", 1.0 - hit.similarity());
+            out.add(Document.builder().id(chunk.id()).text(chunk.text()).metadata(metadata).score(hit.similarity()).build());
+        }
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (vectors != null) vectors.close();
+    }
+
+    record Chunk(String id, String text, Map<String, Object> metadata) {}
+}
@@ -0,0 +1,209 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.hnsw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Hierarchical navigable small world graph over the vectors of a {@link VectorFile}, ranked by cosine
+ * similarity. Nodes are the file's slots and must be inserted in slot order. Only the links are kept
+ * on the heap; they can be saved next to the vectors so an index is not rebuilt on every load.
+ * Not thread-safe while inserting; searches may run concurrently once built.
+ */
+final class HnswGraph {
+
+    private final VectorFile vectors;
+    private final int m;
+    private final int maxLinksLevel0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+    private final List<int[][]> links = new ArrayList<>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    HnswGraph(VectorFile vectors, int m, int efConstruction) {
+        this.vectors = vectors;
+        this.m = Math.max(2, m);
+        this.maxLinksLevel0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1 / Math.log(this.m);
+    }
+
+    int size() {
+        return links.size();
+    }
+
+    void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(links.size());
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int[][] nodeLinks : links) {
+                out.writeInt(nodeLinks.length);
+                for (int[] level : nodeLinks) {
+                    out.writeInt(level[0]);
+                    for (int i = 1; i <= level[0]; i++) out.writeInt(level[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads links saved by {@link #write}; returns null if they do not match the vectors.
+     */
+    static HnswGraph read(Path path, VectorFile vectors, int m, int efConstruction) throws IOException {
+        HnswGraph graph = new HnswGraph(vectors, m, efConstruction);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int size = in.readInt();
+            if (size != vectors.size()) return null;
+            graph.entryPoint = in.readInt();
+            graph.maxLevel = in.readInt();
+            for (int node = 0; node < size; node++) {
+                int[][] nodeLinks = new int[in.readInt()][];
+                for (int l = 0; l < nodeLinks.length; l++) {
+                    int count = in.readInt();
+                    if (count > graph.maxLinks(l)) return null;
+                    nodeLinks[l] = new int[graph.maxLinks(l) + 2];
+                    nodeLinks[l][0] = count;
+                    for (int i = 1; i <= count; i++) nodeLinks[l][i] = in.readInt();
+                }
+                graph.links.add(nodeLinks);
+            }
+        }
+        return graph;
+    }
+
+    void insert(int slot) {
+        if (slot != links.size()) throw new IllegalArgumentException("Slots must be inserted in order");
+        int level = (int) Math.floor(-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        int[][] nodeLinks = new int[level + 1][];
+        // Element 0 holds the number of links
+        for (int l = 0; l <= level; l++) nodeLinks[l] = new int[maxLinks(l) + 2];
+        links.add(nodeLinks);
+        if (entryPoint < 0) {
+            entryPoint = slot;
+            maxLevel = level;
+            return;
+        }
+
+        IntToDoubleFunction similarity = other -> vectors.dot(slot, other);
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) current = greedy(similarity, current, l);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Scored> candidates = searchLayer(similarity, current, efConstruction, l);
+            List<Scored> selected = candidates.subList(0, Math.min(m, candidates.size()));
+            for (Scored neighbour : selected) {
+                addLink(slot, neighbour.node(), l);
+                addLink(neighbour.node(), slot, l);
+            }
+            current = candidates.get(0).node();
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = slot;
+        }
+    }
+
+    /**
+     * The nodes most similar to the unit-length query, best first.
+     */
+    List<Scored> search(float[] query, int k, int ef) {
+        if (entryPoint < 0 || k <= 0) return List.of();
+        IntToDoubleFunction similarity = node -> vectors.dot(node, query);
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) current = greedy(similarity, current, l);
+        List<Scored> found = searchLayer(similarity, current, Math.max(ef, k), 0);
+        return found.subList(0, Math.min(k, found.size()));
+    }
+
+    private int greedy(IntToDoubleFunction similarity, int start, int level) {
+        int current = start;
+        double best = similarity.applyAsDouble(current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbours = links.get(current)[level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                double s = similarity.applyAsDouble(neighbours[i]);
+                if (s > best) {
+                    best = s;
+                    current = neighbours[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search of one layer; returns up to {@code ef} nodes, most similar first.
+     */
+    private List<Scored> searchLayer(IntToDoubleFunction similarity, int start, int ef, int level) {
+        BitSet visited = new BitSet(links.size());
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(Comparator.comparingDouble(Scored::similarity).reversed());
+        PriorityQueue<Scored> results = new PriorityQueue<>(Comparator.comparingDouble(Scored::similarity));
+        Scored first = new Scored(start, similarity.applyAsDouble(start));
+        visited.set(start);
+        candidates.add(first);
+        results.add(first);
+        while (!candidates.isEmpty()) {
+            Scored c = candidates.poll();
+            if (results.size() >= ef && c.similarity() < results.peek().similarity()) break;
+            int[][] nodeLinks = links.get(c.node());
+            if (level >= nodeLinks.length) continue;
+            int[] neighbours = nodeLinks[level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int n = neighbours[i];
+                if (visited.get(n)) continue;
+                visited.set(n);
+                double s = similarity.applyAsDouble(n);
+                if (results.size() < ef || s > results.peek().similarity()) {
+                    Scored scored = new Scored(n, s);
+                    candidates.add(scored);
+                    results.add(scored);
+                    if (results.size() > ef) results.poll();
+                }
+            }
+        }
+        List<Scored> out = new ArrayList<>(results);
+        out.sort(Comparator.comparingDouble(Scored::similarity).reversed());
+        return out;
+    }
+
+    /**
+     * Links {@code from} to {@code to}; a full list keeps its most similar neighbours.
+     */
+    private void addLink(int from, int to, int level) {
+        int[] neighbours = links.get(from)[level];
+        int count = neighbours[0];
+        for (int i = 1; i <= count; i++) if (neighbours[i] == to) return;
+        neighbours[++count] = to;
+        neighbours[0] = count;
+        int max = maxLinks(level);
+        if (count <= max) return;
+
+        List<Scored> scored = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) scored.add(new Scored(neighbours[i], vectors.dot(from, neighbours[i])));
+        scored.sort(Comparator.comparingDouble(Scored::similarity).reversed());
+        for (int i = 0; i < max; i++) neighbours[i + 1] = scored.get(i).node();
+        neighbours[0] = max;
+    }
+
+    private int maxLinks(int level) {
+        return level == 0 ? maxLinksLevel0 : m;
+    }
+
+    record Scored(int node, double similarity) {}
+}
@@ -0,0 +1,321 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.hnsw;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.owieckowicz.chat_gpt_clone.features.conversation.ConversationChangedEvent;
+import com.owieckowicz.chat_gpt_clone.features.rag.document.DocumentsChangedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Vector store that answers conversation-scoped searches from an in-process HNSW index per
+ * conversation, enabled with {@code rag.vector-store.type=hnsw}. The pgvector table stays the
+ * source of truth: writes and deletes go to it, and a conversation's index is built from its rows
+ * on first use. Vectors are kept in memory-mapped files under {@code rag.hnsw.directory}, so after a
+ * restart an index is reloaded from disk instead of the database. At most
+ * {@code max-loaded-conversations} indexes stay open, least recently used are unloaded.
+ * <p>
+ * Searches without a {@code conversationId == '...'} filter go to pgvector.
+ */
+@Component
+@Primary
+@ConditionalOnProperty(name = "rag.vector-store.type", havingValue = "hnsw")
+@Slf4j
+public class HnswVectorStore implements VectorStore {
+    private static final TypeReference<Map<String, Object>> METADATA = new TypeReference<>() {};
+    private static final String CONVERSATION_KEY = "conversationId";
+
+    private final PgVectorStore pgVectorStore;
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final String table;
+    private final Path directory;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final int maxLoaded;
+    private final Map<Long, ConversationIndex> loaded;
+    private final Map<Long, Object> buildLocks = new ConcurrentHashMap<>();
+    // Bumped on every invalidation so an index built from rows that changed meanwhile is not kept
+    private final AtomicLong generation = new AtomicLong();
+    private final Timer buildTimer;
+    private final Timer searchTimer;
+
+    public HnswVectorStore(PgVectorStore pgVectorStore,
+                           EmbeddingModel embeddingModel,
+                           JdbcTemplate jdbcTemplate,
+                           ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry,
+                           @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schema,
+                           @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String table,
+                           @Value("${rag.hnsw.directory:rag-index}") String directory,
+                           @Value("${rag.hnsw.m:16}") int m,
+                           @Value("${rag.hnsw.ef-construction:100}") int efConstruction,
+                           @Value("${rag.hnsw.ef-search:100}") int efSearch,
+                           @Value("${rag.hnsw.max-loaded-conversations:64}") int maxLoaded) {
+        this.pgVectorStore = pgVectorStore;
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.table = schema + "." + table;
+        this.directory = Path.of(directory);
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.maxLoaded = Math.max(1, maxLoaded);
+        this.loaded = new LinkedHashMap<>(16, 0.75f, true);
+        this.buildTimer = Timer.builder("rag.hnsw.build").register(meterRegistry);
+        this.searchTimer = Timer.builder("rag.hnsw.search").register(meterRegistry);
+        Gauge.builder("rag.hnsw.loaded", this, s -> s.loadedCount()).register(meterRegistry);
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        pgVectorStore.add(documents);
+        documents.stream().map(d -> conversationOf(d.getMetadata().get(CONVERSATION_KEY)))
+                .distinct().forEach(this::invalidate);
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        pgVectorStore.delete(idList);
+        // Which conversations held the ids is not known here
+        invalidateAll();
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        pgVectorStore.delete(filterExpression);
+        Long conversationId = conversationFilter(filterExpression);
+        if (conversationId != null) invalidate(conversationId);
+        else invalidateAll();
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        Long conversationId = request.hasFilterExpression() ? conversationFilter(request.getFilterExpression()) : null;
+        if (conversationId == null) return pgVectorStore.similaritySearch(request);
+        float[] query = embeddingModel.embed(request.getQuery());
+        return search(conversationId, query, request.getTopK(), request.getSimilarityThreshold());
+    }
+
+    /**
+     * The {@code topK} chunks of the conversation closest to an already embedded query.
+     */
+    public List<Document> search(Long conversationId, float[] query, int topK) {
+        return search(conversationId, query, topK, 0.0);
+    }
+
+    private List<Document> search(Long conversationId, float[] query, int topK, double threshold) {
+        ConversationIndex index = index(conversationId);
+        return searchTimer.record(() -> index.search(query, topK, Math.max(efSearch, topK), threshold));
+    }
+
+    @EventListener
+    public void onDocumentsChanged(DocumentsChangedEvent event) {
+        invalidate(event.conversationId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConversationChanged(ConversationChangedEvent event) {
+        if (event.deleted()) invalidate(event.conversationId());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        synchronized (loaded) {
+            loaded.values().forEach(this::closeQuietly);
+            loaded.clear();
+        }
+    }
+
+    private ConversationIndex index(Long conversationId) {
+        ConversationIndex index = cached(conversationId);
+        if (index != null) return index;
+        synchronized (buildLocks.computeIfAbsent(conversationId, k -> new Object())) {
+            index = cached(conversationId);
+            if (index != null) return index;
+            long seen = generation.get();
+            index = buildTimer.record(() -> loadOrBuild(conversationId));
+            if (generation.get() == seen) {
+                remember(conversationId, index);
+            } else {
+                // Documents changed while building; serve this search, build again next time
+                deleteFiles(conversationId);
+            }
+            return index;
+        }
+    }
+
+    private ConversationIndex loadOrBuild(Long conversationId) {
+        Path dir = directory.resolve(String.valueOf(conversationId));
+        try {
+            int rows = rowCount(conversationId);
+            if (rows == 0) return ConversationIndex.empty();
+            ConversationIndex stored = ConversationIndex.load(dir, m, efConstruction, objectMapper);
+            if (stored != null && stored.size() == rows) {
+                log.debug("Loaded HNSW index of conversation {} from disk ({} chunks)", conversationId, rows);
+                return stored;
+            }
+            if (stored != null) stored.close();
+            return build(conversationId, dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load vector index of conversation " + conversationId, e);
+        }
+    }
+
+    private ConversationIndex build(Long conversationId, Path dir) throws IOException {
+        List<ConversationIndex.Chunk> chunks = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        jdbcTemplate.query("SELECT id, content, metadata::text, embedding::text FROM " + table +
+                        " WHERE conversation_id = ? ORDER BY id",
+                rs -> {
+                    chunks.add(new ConversationIndex.Chunk(rs.getString(1), rs.getString(2), readMetadata(rs.getString(3))));
+                    embeddings.add(VectorFile.parse(rs.getString(4)));
+                },
+                conversationId);
+        // Write beside the live directory and swap, so a crash never leaves a half-written index
+        Path staging = directory.resolve(conversationId + ".building");
+        deleteRecursively(staging);
+        ConversationIndex index = ConversationIndex.build(staging, chunks, embeddings, m, efConstruction, objectMapper);
+        deleteRecursively(dir);
+        if (Files.exists(staging)) Files.move(staging, dir, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Built HNSW index of conversation {} ({} chunks)", conversationId, chunks.size());
+        return index;
+    }
+
+    private int rowCount(Long conversationId) {
+        Integer rows = jdbcTemplate.queryForObject("SELECT count(*) FROM " + table + " WHERE conversation_id = ?",
+                Integer.class, conversationId);
+        return rows == null ? 0 : rows;
+    }
+
+    private ConversationIndex cached(Long conversationId) {
+        synchronized (loaded) {
+            return loaded.get(conversationId);
+        }
+    }
+
+    private void remember(Long conversationId, ConversationIndex index) {
+        synchronized (loaded) {
+            ConversationIndex previous = loaded.put(conversationId, index);
+            if (previous != null && previous != index) closeQuietly(previous);
+            var it = loaded.entrySet().iterator();
+            while (loaded.size() > maxLoaded && it.hasNext()) {
+                // Unloaded indexes stay on disk and are mapped again on next use
+                closeQuietly(it.next().getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private void invalidate(Long conversationId) {
+        if (conversationId == null) return;
+        generation.incrementAndGet();
+        synchronized (loaded) {
+            ConversationIndex removed = loaded.remove(conversationId);
+            if (removed != null) closeQuietly(removed);
+        }
+        deleteFiles(conversationId);
+    }
+
+    private void invalidateAll() {
+        generation.incrementAndGet();
+        List<Long> ids;
+        synchronized (loaded) {
+            ids = new ArrayList<>(loaded.keySet());
+            loaded.values().forEach(this::closeQuietly);
+            loaded.clear();
+        }
+        ids.forEach(this::deleteFiles);
+        // Indexes on disk that are not loaded may be stale too; they are checked against the row count on load
+    }
+
+    private int loadedCount() {
+        synchronized (loaded) {
+            return loaded.size();
+        }
+    }
+
+    private void deleteFiles(Long conversationId) {
+        try {
+            deleteRecursively(directory.resolve(String.valueOf(conversationId)));
+        } catch (IOException e) {
+            log.warn("Could not delete vector index of conversation {}", conversationId, e);
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    private void closeQuietly(ConversationIndex index) {
+        try {
+            index.close();
+        } catch (IOException e) {
+            log.debug("Closing vector index failed", e);
+        }
+    }
+
+    /**
+     * The conversation id of a {@code conversationId == '...'} expression, or null for anything else.
+     */
+    private static Long conversationFilter(Filter.Expression expression) {
+        if (expression == null || expression.type() != Filter.ExpressionType.EQ) return null;
+        if (!(expression.left() instanceof Filter.Key key) || !(expression.right() instanceof Filter.Value value)) return null;
+        String name = key.key().replace("\"", "").replace("'", "");
+        return CONVERSATION_KEY.equals(name) ? conversationOf(value.value()) : null;
+    }
+
+    private static Long conversationOf(Object value) {
+        if (value == null) return null;
+        try {
+            return Long.valueOf(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Map<String, Object> readMetadata(String json) {
+        if (json == null) return Map.of();
+        try {
+            return objectMapper.readValue(json, METADATA);
+        } catch (Exception e) {
+            return Map.of();
+        }
+    }
+}
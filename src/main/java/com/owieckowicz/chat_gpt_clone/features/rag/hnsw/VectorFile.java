@@ -0,0 +1,157 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.hnsw;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only file of unit-length float vectors, memory-mapped so the vectors live outside the heap
+ * and are paged in by the OS. Layout: a 16-byte header (magic, dimensions, count) followed by the
+ * vectors in slot order, little-endian.
+ */
+final class VectorFile implements AutoCloseable {
+    private static final int MAGIC = 0x48565831; // "HVX1"
+    private static final int HEADER_BYTES = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final FileChannel channel;
+    private final int dimensions;
+    private volatile ByteBuffer buffer;
+    // Float view of the same mapping, indexed from the first vector
+    private volatile FloatBuffer floats;
+    private volatile int count;
+    private int capacity;
+
+    private VectorFile(FileChannel channel, int dimensions, int count) throws IOException {
+        this.channel = channel;
+        this.dimensions = dimensions;
+        this.count = count;
+        map(Math.max(INITIAL_CAPACITY, count));
+    }
+
+    /**
+     * Creates a new file, replacing any existing one.
+     */
+    static VectorFile create(Path path, int dimensions) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        VectorFile file = new VectorFile(channel, dimensions, 0);
+        file.buffer.putInt(0, MAGIC).putInt(4, dimensions).putInt(8, 0);
+        return file;
+    }
+
+    static VectorFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC) throw new IOException("Not a vector file: " + path);
+            int dimensions = header.getInt(4);
+            int count = header.getInt(8);
+            if (dimensions <= 0 || count < 0 || channel.size() < HEADER_BYTES + (long) count * dimensions * Float.BYTES) {
+                throw new IOException("Truncated vector file: " + path);
+            }
+            return new VectorFile(channel, dimensions, count);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Normalizes and appends the vector, returning its slot.
+     */
+    synchronized int append(float[] vector) throws IOException {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + vector.length);
+        }
+        if (count == capacity) map(capacity * 2);
+        float[] unit = unit(vector);
+        floats.put(count * dimensions, unit);
+        count++;
+        buffer.putInt(8, count);
+        return count - 1;
+    }
+
+    /**
+     * Cosine similarity between a stored vector and a unit-length query.
+     */
+    double dot(int slot, float[] query) {
+        FloatBuffer f = floats;
+        int base = slot * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) sum += f.get(base + i) * query[i];
+        return sum;
+    }
+
+    double dot(int a, int b) {
+        FloatBuffer f = floats;
+        int baseA = a * dimensions;
+        int baseB = b * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) sum += f.get(baseA + i) * f.get(baseB + i);
+        return sum;
+    }
+
+    synchronized void force() {
+        if (buffer instanceof MappedByteBuffer mapped) mapped.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping stays valid for searches still holding it and is released when collected
+        channel.close();
+    }
+
+    static float[] unit(float[] v) {
+        double norm = 0;
+        for (float x : v) norm += x * x;
+        norm = Math.sqrt(norm);
+        if (norm == 0) return v.clone();
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) out[i] = (float) (v[i] / norm);
+        return out;
+    }
+
+    /**
+     * Parses pgvector's text form, {@code [1,2.5,-3]}.
+     */
+    static float[] parse(String literal) {
+        String body = literal.strip();
+        if (body.length() < 2 || body.charAt(0) != '[' || body.charAt(body.length() - 1) != ']') {
+            throw new IllegalArgumentException("Not a vector literal: " + literal);
+        }
+        body = body.substring(1, body.length() - 1).strip();
+        if (body.isEmpty()) return new float[0];
+        String[] parts = body.split(",");
+        float[] out = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) out[i] = Float.parseFloat(parts[i].strip());
+        return out;
+    }
+
+    private long offset(int slot) {
+        return HEADER_BYTES + (long) slot * dimensions * Float.BYTES;
+    }
+
+    private void map(int slots) throws IOException {
+        long bytes = offset(slots);
+        if (bytes > Integer.MAX_VALUE) throw new IOException("Vector file over 2 GB");
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.LITTLE_ENDIAN);
+        floats = mapped.slice(HEADER_BYTES, mapped.capacity() - HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        buffer = mapped;
+        capacity = slots;
+    }
+}
@@ -0,0 +1,53 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.ingest;
+
+import jakarta.persistence.*;
+import java.time.OffsetDateTime;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+@Entity
+@Table(name = "ingestion_jobs", indexes = @Index(name = "idx_ingestion_jobs_status", columnList = "status"))
+public class IngestionJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private Long conversationId;
+
+    private Long documentId;
+
+    private String filename;
+
+    @Column(length = 1024)
+    private String filePath;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private IngestionStatus status;
+
+    private int chunksEmbedded;
+
+    private int chunksTotal;
+
+    private Double chunksPerSecond;
+
+    @Column(length = 2000)
+    private String error;
+
+    private OffsetDateTime createdAt;
+    private OffsetDateTime updatedAt;
+
+    @PrePersist
+    void onCreate() {
+        this.createdAt = OffsetDateTime.now();
+        this.updatedAt = this.createdAt;
+        if (this.status == null) this.status = IngestionStatus.QUEUED;
+    }
+
+    @PreUpdate
+    void onUpdate() {
+        this.updatedAt = OffsetDateTime.now();
+    }
+}
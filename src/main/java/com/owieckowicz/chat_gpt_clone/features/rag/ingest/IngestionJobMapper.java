@@ -0,0 +1,23 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.ingest;
+
+import org.springframework.stereotype.Component;
+
+@Component
+public class IngestionJobMapper {
+    public IngestionJobResponse toResponse(IngestionJob entity) {
+        if (entity == null) return null;
+        return new IngestionJobResponse(
+                entity.getId(),
+                entity.getConversationId(),
+                entity.getDocumentId(),
+                entity.getFilename(),
+                entity.getStatus(),
+                entity.getChunksEmbedded(),
+                entity.getChunksTotal(),
+                entity.getChunksPerSecond(),
+                entity.getError(),
+                entity.getCreatedAt(),
+                entity.getUpdatedAt()
+        );
+    }
+}
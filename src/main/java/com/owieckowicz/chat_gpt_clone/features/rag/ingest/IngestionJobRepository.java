@@ -0,0 +1,46 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.ingest;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface IngestionJobRepository extends JpaRepository<IngestionJob, Long> {
+    Optional<IngestionJob> findByIdAndConversationId(Long id, Long conversationId);
+
+    List<IngestionJob> findByStatusInOrderByIdAsc(Collection<IngestionStatus> statuses);
+
+    @Transactional
+    @Modifying
+    @Query("update IngestionJob j set j.status = :status, j.chunksEmbedded = :embedded, j.chunksTotal = :total, " +
+            "j.updatedAt = :now where j.id = :id")
+    int updateProgress(@Param("id") Long id,
+                       @Param("status") IngestionStatus status,
+                       @Param("embedded") int embedded,
+                       @Param("total") int total,
+                       @Param("now") OffsetDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("update IngestionJob j set j.status = com.owieckowicz.chat_gpt_clone.features.rag.ingest.IngestionStatus.DONE, " +
+            "j.chunksEmbedded = :chunks, j.chunksTotal = :chunks, j.chunksPerSecond = :chunksPerSecond, " +
+            "j.updatedAt = :now where j.id = :id")
+    int complete(@Param("id") Long id,
+                 @Param("chunks") int chunks,
+                 @Param("chunksPerSecond") Double chunksPerSecond,
+                 @Param("now") OffsetDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("update IngestionJob j set j.status = :status, j.error = :error, j.updatedAt = :now where j.id = :id")
+    int updateStatus(@Param("id") Long id,
+                     @Param("status") IngestionStatus status,
+                     @Param("error") String error,
+                     @Param("now") OffsetDateTime now);
+}
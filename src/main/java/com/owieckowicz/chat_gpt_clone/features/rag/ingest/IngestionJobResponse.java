@@ -0,0 +1,17 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.ingest;
+
+import java.time.OffsetDateTime;
+
+public record IngestionJobResponse(
+        Long jobId,
+        Long conversationId,
+        Long documentId,
+        String filename,
+        IngestionStatus status,
+        int chunksEmbedded,
+        int chunksTotal,
+        Double chunksPerSecond,
+        String error,
+        OffsetDateTime createdAt,
+        OffsetDateTime updatedAt
+) {}
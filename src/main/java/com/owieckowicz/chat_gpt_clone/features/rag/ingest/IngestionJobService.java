@@ -0,0 +1,165 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.ingest;
+
+import com.owieckowicz.chat_gpt_clone.features.rag.IngestionResult;
+import com.owieckowicz.chat_gpt_clone.features.rag.RagService;
+import com.owieckowicz.chat_gpt_clone.features.rag.document.DocumentDeletedEvent;
+import com.owieckowicz.chat_gpt_clone.features.rag.document.DocumentService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs PDF ingestion in the background. Jobs are persisted in {@code ingestion_jobs} and executed
+ * by a small pool of low-priority workers so ingestion does not compete with chat requests.
+ * Unfinished jobs are picked up again after a restart.
+ */
+@Service
+@Slf4j
+public class IngestionJobService {
+    private static final String DOCUMENT_DELETED = "Document deleted";
+
+    private final IngestionJobRepository repository;
+    private final IngestionJobMapper mapper;
+    private final RagService ragService;
+    private final DocumentService documentService;
+    private final ExecutorService workers;
+    // Documents being ingested, with a flag set when the document is deleted
+    private final Map<Long, AtomicBoolean> running = new ConcurrentHashMap<>();
+
+    public IngestionJobService(IngestionJobRepository repository,
+                               IngestionJobMapper mapper,
+                               RagService ragService,
+                               DocumentService documentService,
+                               @Value("${rag.ingest.workers:1}") int workerCount) {
+        this.repository = repository;
+        this.mapper = mapper;
+        this.ragService = ragService;
+        this.documentService = documentService;
+        AtomicInteger seq = new AtomicInteger();
+        int size = Math.max(1, workerCount);
+        this.workers = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "ingest-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    public IngestionJobResponse submit(Long conversationId, Long documentId, Path file, String filename) {
+        IngestionJob job = new IngestionJob();
+        job.setConversationId(conversationId);
+        job.setDocumentId(documentId);
+        job.setFilename(filename);
+        job.setFilePath(file.toString());
+        job.setStatus(IngestionStatus.QUEUED);
+        job = repository.save(job);
+        dispatch(job.getId());
+        return mapper.toResponse(job);
+    }
+
+    public Optional<IngestionJobResponse> get(Long conversationId, Long jobId) {
+        return repository.findByIdAndConversationId(jobId, conversationId).map(mapper::toResponse);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() {
+        var pending = repository.findByStatusInOrderByIdAsc(
+                EnumSet.of(IngestionStatus.QUEUED, IngestionStatus.PARSING, IngestionStatus.EMBEDDING));
+        for (IngestionJob job : pending) {
+            if (job.getStatus() != IngestionStatus.QUEUED) {
+                // Interrupted mid-way: drop partial chunks so the rerun does not duplicate them
+                ragService.deleteDocumentChunks(job.getDocumentId());
+                documentService.markProcessing(job.getConversationId(), job.getDocumentId());
+                repository.updateProgress(job.getId(), IngestionStatus.QUEUED, 0, 0, OffsetDateTime.now());
+            }
+            dispatch(job.getId());
+        }
+        if (!pending.isEmpty()) log.info("Resumed {} unfinished ingestion jobs", pending.size());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private void dispatch(Long jobId) {
+        workers.execute(() -> run(jobId));
+    }
+
+    /**
+     * Stops the running ingestion of a deleted document at its next stored batch.
+     */
+    @EventListener
+    public void onDocumentDeleted(DocumentDeletedEvent event) {
+        AtomicBoolean cancelled = running.get(event.documentId());
+        if (cancelled != null) cancelled.set(true);
+    }
+
+    private void run(Long jobId) {
+        IngestionJob job = repository.findById(jobId).orElse(null);
+        if (job == null || job.getStatus() != IngestionStatus.QUEUED) return;
+
+        // Registered before the existence check, so a delete either is seen here or sets the flag
+        AtomicBoolean cancelled = new AtomicBoolean();
+        running.put(job.getDocumentId(), cancelled);
+        try {
+            if (!documentService.exists(job.getDocumentId())) {
+                repository.updateStatus(jobId, IngestionStatus.FAILED, DOCUMENT_DELETED, OffsetDateTime.now());
+                return;
+            }
+            ingest(job, cancelled);
+        } finally {
+            running.remove(job.getDocumentId(), cancelled);
+        }
+    }
+
+    private void ingest(IngestionJob job, AtomicBoolean cancelled) {
+        Long jobId = job.getId();
+        long started = System.nanoTime();
+        repository.updateStatus(jobId, IngestionStatus.PARSING, null, OffsetDateTime.now());
+        try {
+            IngestionResult result = ragService.ingestPdf(job.getConversationId(), job.getDocumentId(),
+                    Path.of(job.getFilePath()), job.getFilename(),
+                    (embedded, total) -> {
+                        if (cancelled.get()) throw new CancellationException(DOCUMENT_DELETED);
+                        repository.updateProgress(jobId, IngestionStatus.EMBEDDING, embedded, total, OffsetDateTime.now());
+                    });
+            repository.complete(jobId, result.chunks(), result.chunksPerSecond(), OffsetDateTime.now());
+            if (!documentService.markReady(job.getConversationId(), job.getDocumentId(), result.chunks())) {
+                // Deleted while we were writing: chunks stored after its cleanup are ours to remove
+                ragService.deleteDocumentChunks(job.getDocumentId());
+                log.info("Ingestion job {} finished for a deleted document, chunks removed", jobId);
+                return;
+            }
+            log.info("Ingestion job {} done in {} ms", jobId, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (Exception e) {
+            log.warn("Ingestion job {} failed", jobId, e);
+            String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            if (error.length() > 2000) error = error.substring(0, 2000);
+            repository.updateStatus(jobId, IngestionStatus.FAILED, error, OffsetDateTime.now());
+            documentService.markFailed(job.getConversationId(), job.getDocumentId());
+            try {
+                ragService.deleteDocumentChunks(job.getDocumentId());
+            } catch (Exception cleanupError) {
+                log.warn("Could not remove partial chunks of document {}", job.getDocumentId(), cleanupError);
+            }
+        }
+    }
+}
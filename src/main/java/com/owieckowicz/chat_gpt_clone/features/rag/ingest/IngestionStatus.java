@@ -0,0 +1,9 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.ingest;
+
+public enum IngestionStatus {
+    QUEUED,
+    PARSING,
+    EMBEDDING,
+    DONE,
+    FAILED
+}
@@ -1,18 +1,25 @@
 package com.owieckowicz.chat_gpt_clone.features.rag.pdf;
 
-import com.owieckowicz.chat_gpt_clone.features.rag.RagService;
+import com.owieckowicz.chat_gpt_clone.features.rag.document.DocumentResponse;
+import com.owieckowicz.chat_gpt_clone.features.rag.document.DocumentService;
+import com.owieckowicz.chat_gpt_clone.features.rag.ingest.IngestionJobResponse;
+import com.owieckowicz.chat_gpt_clone.features.rag.ingest.IngestionJobService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -21,12 +28,12 @@ import java.util.UUID;
 @RequestMapping("/api/conversations/{conversationId}/documents")
 public class DocumentUploadController {
 
-    private final RagService ragService;
-    private final JdbcTemplate jdbcTemplate;
+    private final IngestionJobService ingestionJobService;
+    private final DocumentService documentService;
 
-    public DocumentUploadController(RagService ragService, JdbcTemplate jdbcTemplate) {
-        this.ragService = ragService;
-        this.jdbcTemplate = jdbcTemplate;
+    public DocumentUploadController(IngestionJobService ingestionJobService, DocumentService documentService) {
+        this.ingestionJobService = ingestionJobService;
+        this.documentService = documentService;
     }
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -43,41 +50,79 @@ public class DocumentUploadController {
 
         String original = StringUtils.hasText(file.getOriginalFilename()) ? file.getOriginalFilename() : ("upload-" + UUID.randomUUID());
         String idStr = UUID.randomUUID().toString();
-        Long documentId = Math.abs(idStr.hashCode() * 1L);
 
         Path uploadDir = Path.of("uploads", String.valueOf(conversationId));
         Files.createDirectories(uploadDir);
         Path dest = uploadDir.resolve(idStr + ".pdf");
-        Files.copy(file.getInputStream(), dest, StandardCopyOption.REPLACE_EXISTING);
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            Files.copy(in, dest, StandardCopyOption.REPLACE_EXISTING);
+        }
+        String fileHash = HexFormat.of().formatHex(digest.digest());
+
+        var duplicate = documentService.findDuplicate(conversationId, fileHash);
+        if (duplicate.isPresent()) {
+            Files.deleteIfExists(dest);
+            DocumentResponse existing = duplicate.get();
+            return ResponseEntity.ok(Map.of(
+                    "documentId", existing.documentId(),
+                    "filename", existing.filename(),
+                    "status", existing.status(),
+                    "duplicate", true
+            ));
+        }
 
-        // Synchronous ingest for MVP
-        ragService.ingestPdf(conversationId, documentId, dest, original);
+        DocumentResponse document = documentService.register(conversationId, original, file.getSize(), fileHash, dest.toString());
+        IngestionJobResponse job;
+        try {
+            job = ingestionJobService.submit(conversationId, document.documentId(), dest, original);
+        } catch (RuntimeException e) {
+            // Otherwise the document stays PROCESSING with no job and blocks re-uploading the same file
+            documentService.markFailed(conversationId, document.documentId());
+            throw e;
+        }
 
         return ResponseEntity.accepted().body(Map.of(
-                "documentId", documentId,
-                "filename", original
+                "jobId", job.jobId(),
+                "documentId", document.documentId(),
+                "filename", original,
+                "status", job.status()
         ));
     }
 
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<IngestionJobResponse> job(@PathVariable Long conversationId, @PathVariable Long jobId) {
+        return ingestionJobService.get(conversationId, jobId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
     @GetMapping
-    public List<DocumentItem> list(@PathVariable Long conversationId) {
-        String sql = "SELECT DISTINCT metadata->>'documentId' AS document_id, metadata->>'filename' AS filename " +
-                "FROM public.vector_store WHERE metadata->>'conversationId' = ? ORDER BY filename";
-        return jdbcTemplate.query(sql, new Object[]{String.valueOf(conversationId)}, (rs, rowNum) -> {
-            String docIdStr = rs.getString("document_id");
-            String filename = rs.getString("filename");
-            Long docId = null;
-            try {
-                docId = Long.parseLong(docIdStr);
-            } catch (Exception ignored) {
-                // fallback if parsing fails
-                docId = 0L;
-            }
-            return new DocumentItem(docId, filename);
-        });
+    public List<DocumentResponse> list(@PathVariable Long conversationId) {
+        return documentService.list(conversationId);
     }
 
-    public record DocumentItem(Long documentId, String filename) {}
+    @GetMapping("/{documentId}")
+    public ResponseEntity<DocumentResponse> get(@PathVariable Long conversationId, @PathVariable Long documentId) {
+        return documentService.get(conversationId, documentId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @DeleteMapping("/{documentId}")
+    public ResponseEntity<Void> delete(@PathVariable Long conversationId, @PathVariable Long documentId) {
+        return documentService.delete(conversationId, documentId)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
 
 
@@ -0,0 +1,70 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import com.owieckowicz.chat_gpt_clone.features.message.Message;
+import com.owieckowicz.chat_gpt_clone.features.message.MessageRepository;
+import com.owieckowicz.chat_gpt_clone.features.message.MessageStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ConversationChatMemoryRepositoryTest {
+    private static final Long CONVERSATION = 7L;
+
+    private final MessageRepository messages = mock(MessageRepository.class);
+    private final ConversationChatMemoryRepository memory =
+            new ConversationChatMemoryRepository(messages, new SimpleMeterRegistry(), 20, Duration.ofMinutes(10), 1_000_000);
+
+    @Test
+    void appendedTurnIsServedOnceItsAnswerSettles() {
+        when(messages.findLastSettledId(eq(CONVERSATION), any())).thenReturn(2L);
+        when(messages.findByConversationIdAndIdLessThanOrderByCreatedAtDescIdDesc(eq(CONVERSATION), any(), any(Pageable.class)))
+                .thenReturn(List.of(row(2L, "assistant", "hello"), row(1L, "user", "hi")));
+        assertEquals(2, memory.history(CONVERSATION, 3L).size());
+
+        memory.appendTurn(CONVERSATION, 4L, "how are you?", "fine");
+        // The answer's COMPLETE update has been committed
+        when(messages.findLastSettledId(eq(CONVERSATION), any())).thenReturn(4L);
+
+        List<org.springframework.ai.chat.messages.Message> window = memory.history(CONVERSATION, 5L);
+        assertEquals(List.of("hi", "hello", "how are you?", "fine"),
+                window.stream().map(org.springframework.ai.chat.messages.Message::getText).toList());
+        verify(messages, times(1)).findByConversationIdAndIdLessThanOrderByCreatedAtDescIdDesc(eq(CONVERSATION), any(), any(Pageable.class));
+    }
+
+    @Test
+    void unansweredQuestionIsLeftOutWithItsFailedAnswer() {
+        when(messages.findLastSettledId(eq(CONVERSATION), any())).thenReturn(4L);
+        when(messages.findByConversationIdAndIdLessThanOrderByCreatedAtDescIdDesc(eq(CONVERSATION), eq(5L), any(Pageable.class)))
+                .thenReturn(List.of(failed(4L), row(3L, "user", "again?"), row(2L, "assistant", "hello"), row(1L, "user", "hi")));
+
+        assertEquals(List.of("hi", "hello"), memory.history(CONVERSATION, 5L).stream()
+                .map(org.springframework.ai.chat.messages.Message::getText).toList());
+    }
+
+    private static Message failed(Long id) {
+        Message m = row(id, "assistant", "[ERROR] timeout");
+        m.setStatus(MessageStatus.FAILED);
+        return m;
+    }
+
+    private static Message row(Long id, String role, String content) {
+        Message m = new Message();
+        m.setId(id);
+        m.setConversationId(CONVERSATION);
+        m.setRole(role);
+        m.setContent(content);
+        if ("assistant".equals(role)) m.setStatus(MessageStatus.COMPLETE);
+        return m;
+    }
+}
@@ -0,0 +1,114 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GenerationAdmissionTest {
+    private static final String MODEL = "test-model";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void waitingConversationsTakeTurns() {
+        GenerationAdmission admission = admission(1, 10, Duration.ofSeconds(5));
+        GenerationAdmission.Ticket holder = admission.enqueue(MODEL, "a");
+        List<String> order = new CopyOnWriteArrayList<>();
+        for (String name : List.of("a1", "a2", "a3", "b1")) {
+            admission.enqueue(MODEL, name.substring(0, 1))
+                    .run(() -> {
+                        order.add(name);
+                        return Flux.just(name);
+                    })
+                    .subscribe();
+        }
+        assertEquals(List.of(), order);
+
+        holder.release();
+
+        assertEquals(List.of("a1", "b1", "a2", "a3"), order);
+        assertEquals(0, gauge("chat.admission.active"));
+    }
+
+    @Test
+    void fullQueueIsRejected() {
+        GenerationAdmission admission = admission(1, 1, Duration.ofSeconds(5));
+        admission.enqueue(MODEL, "a");
+        admission.enqueue(MODEL, "b");
+
+        AdmissionRejectedException e = assertThrows(AdmissionRejectedException.class,
+                () -> admission.enqueue(MODEL, "c"));
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, e.getStatusCode());
+        // Initial 10 s hold estimate times the one waiter plus the new request, over one slot
+        assertEquals(List.of("20"), e.getHeaders().get(HttpHeaders.RETRY_AFTER));
+        assertEquals(1, registry.get("chat.admission.rejected").tag("model", MODEL).counter().count());
+        assertEquals(1, gauge("chat.admission.queue"));
+    }
+
+    @Test
+    void cancelledGenerationFreesItsSlot() {
+        GenerationAdmission admission = admission(1, 10, Duration.ofSeconds(5));
+        Disposable running = admission.enqueue(MODEL, "a").run(Flux::never).subscribe();
+        List<String> started = new CopyOnWriteArrayList<>();
+        admission.enqueue(MODEL, "b").run(() -> {
+            started.add("b");
+            return Flux.never();
+        }).subscribe();
+        assertEquals(1, gauge("chat.admission.queue"));
+
+        running.dispose();
+
+        assertEquals(List.of("b"), started);
+        assertEquals(1, gauge("chat.admission.active"));
+        assertEquals(0, gauge("chat.admission.queue"));
+    }
+
+    @Test
+    void timedOutWaiterLeavesTheQueue() {
+        GenerationAdmission admission = admission(1, 10, Duration.ofMillis(50));
+        GenerationAdmission.Ticket holder = admission.enqueue(MODEL, "a");
+        Flux<String> waiting = admission.enqueue(MODEL, "b").run(() -> Flux.just("never granted"));
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, waiting::blockLast);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+        assertEquals(0, gauge("chat.admission.queue"));
+        holder.release();
+        assertEquals(0, gauge("chat.admission.active"));
+    }
+
+    @Test
+    void releasingTwiceFreesOneSlot() {
+        GenerationAdmission admission = admission(1, 10, Duration.ofSeconds(5));
+        GenerationAdmission.Ticket ticket = admission.enqueue(MODEL, "a");
+        ticket.release();
+        ticket.release();
+        assertEquals(0, gauge("chat.admission.active"));
+
+        admission.enqueue(MODEL, "b");
+        admission.enqueue(MODEL, "c");
+
+        assertEquals(1, gauge("chat.admission.active"));
+        assertEquals(1, gauge("chat.admission.queue"));
+    }
+
+    private GenerationAdmission admission(int maxConcurrent, int maxQueue, Duration maxWait) {
+        return new GenerationAdmission(new AdmissionProperties(maxConcurrent, maxQueue, maxWait, List.of()), registry);
+    }
+
+    private double gauge(String name) {
+        return registry.get(name).tag("model", MODEL).gauge().value();
+    }
+}
@@ -0,0 +1,107 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ImagePreprocessorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ImagePreprocessor preprocessor;
+
+    @BeforeEach
+    void setUp() {
+        preprocessor = new ImagePreprocessor(new SimpleMeterRegistry(), 1024, 0.85f, tempDir.toString(),
+                Duration.ofMinutes(5), 64L * 1024 * 1024);
+    }
+
+    @Test
+    void largePhotoIsScaledToMaxDimension() throws IOException {
+        // Phone-camera size, under 4x max-dimension on the long side
+        ProcessedImage out = preprocessor.process(png("photo.png", 4032, 3024));
+
+        assertEquals(MediaType.IMAGE_JPEG, out.mediaType());
+        assertEquals(1024, out.width());
+        assertEquals(768, out.height());
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.data()));
+        assertEquals(1024, decoded.getWidth());
+        assertEquals(768, decoded.getHeight());
+    }
+
+    @Test
+    void subsampleStepKeepsTheLongSideAtOrAboveMaxDimension() {
+        assertEquals(1, ImagePreprocessor.subsampleStep(1500, 1000, 1024));
+        assertEquals(3, ImagePreprocessor.subsampleStep(4032, 3024, 1024));
+        assertEquals(3, ImagePreprocessor.subsampleStep(3024, 4095, 1024));
+        assertEquals(4, ImagePreprocessor.subsampleStep(4096, 3072, 1024));
+        assertEquals(1, ImagePreprocessor.subsampleStep(200, 100, 1024));
+    }
+
+    @Test
+    void smallPngPassesThroughUnchanged() throws IOException {
+        MockMultipartFile upload = png("icon.png", 200, 100);
+        ProcessedImage out = preprocessor.process(upload);
+
+        assertEquals(MediaType.IMAGE_PNG, out.mediaType());
+        assertEquals(200, out.width());
+        assertEquals(100, out.height());
+        assertArrayEquals(upload.getBytes(), out.data());
+    }
+
+    @Test
+    void undecodableUploadPassesThroughUnchanged() throws IOException {
+        byte[] bytes = "not an image".getBytes();
+        ProcessedImage out = preprocessor.process(new MockMultipartFile("image", "x.png", "image/png", bytes));
+
+        assertArrayEquals(bytes, out.data());
+        assertEquals(MediaType.IMAGE_PNG, out.mediaType());
+    }
+
+    @Test
+    void passThroughKeepsEachUploadsMediaType() throws IOException {
+        byte[] bytes = "not an image".getBytes();
+        preprocessor.process(new MockMultipartFile("image", "x.png", "image/png", bytes));
+
+        ProcessedImage out = preprocessor.process(new MockMultipartFile("image", "x.webp", "image/webp", bytes));
+
+        assertEquals(MediaType.parseMediaType("image/webp"), out.mediaType());
+    }
+
+    @Test
+    void sameUploadIsProcessedOnce() throws IOException {
+        MockMultipartFile upload = png("photo.png", 2048, 1536);
+        assertSame(preprocessor.process(upload), preprocessor.process(upload));
+    }
+
+    private static MockMultipartFile png(String name, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.ORANGE);
+        g.fillOval(width / 4, height / 4, width / 2, height / 2);
+        g.dispose();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        return new MockMultipartFile("image", name, "image/png", bytes.toByteArray());
+    }
+}
@@ -0,0 +1,65 @@
+package com.owieckowicz.chat_gpt_clone.features.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebFetchServiceTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void expiredCopyIsServedWhenTheSiteIsUnreachable() throws Exception {
+        String url = "http://localhost:" + closedPort() + "/page";
+        WebFetchService service = service(1_000_000);
+        Path file = service.diskFile(url);
+        long expired = System.currentTimeMillis() - 1000;
+        objectMapper.writeValue(file.toFile(), new WebFetchService.CachedPage(url, "cached text", "\"v1\"", null, expired));
+
+        assertEquals("cached text", service.fetchText(url, 0));
+    }
+
+    @Test
+    void pruningDeletesExpiredFilesAndThenTheSoonestToExpire() throws Exception {
+        long now = System.currentTimeMillis();
+        Path expired = entry("expired.json", now - 1000);
+        Path soonest = entry("soonest.json", now + 60_000);
+        Path latest = entry("latest.json", now + 120_000);
+
+        service(Files.size(latest)).pruneDiskCache();
+
+        assertFalse(Files.exists(expired));
+        assertFalse(Files.exists(soonest));
+        assertTrue(Files.exists(latest));
+    }
+
+    private WebFetchService service(long diskMaxBytes) {
+        return new WebFetchService(objectMapper, new SimpleMeterRegistry(), 1000, Duration.ofMinutes(30),
+                1_000_000, dir.toString(), diskMaxBytes);
+    }
+
+    private Path entry(String name, long expiresAt) throws Exception {
+        Path file = Files.writeString(dir.resolve(name), "{\"text\":\"" + name + "\"}");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(expiresAt));
+        return file;
+    }
+
+    private static int closedPort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.owieckowicz.chat_gpt_clone.features.message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageWriterTest {
+    // Long enough that everything queued in a test lands in one batch
+    private static final long FLUSH_INTERVAL_MS = 10_000;
+
+    private final MessageRepository repository = mock(MessageRepository.class);
+    private final MessageWriter writer = new MessageWriter(repository, new SimpleMeterRegistry(), 100, 50, FLUSH_INTERVAL_MS);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        writer.shutdown();
+    }
+
+    @Test
+    void waitedWriteIsFlushedWithoutTheBatchWindow() {
+        assertTimeout(Duration.ofSeconds(2), () -> writer.writeAndWait(message("user")));
+        verify(repository).saveAll(anyList());
+    }
+
+    @Test
+    void insertsAndUpdatesAreAppliedInQueueOrder() {
+        Message first = message("user");
+        Message second = message("assistant");
+        Message third = message("assistant");
+        writer.write(first);
+        writer.update(10L, "partial", MessageStatus.STREAMING);
+        writer.write(second);
+        writer.writeAndWait(third);
+
+        InOrder order = inOrder(repository);
+        order.verify(repository).saveAll(List.of(first));
+        order.verify(repository).updateContent(10L, "partial", MessageStatus.STREAMING);
+        order.verify(repository).saveAll(List.of(second, third));
+    }
+
+    @Test
+    void onlyTheLatestCheckpointOfAMessageIsWritten() {
+        CompletableFuture<Void> superseded = writer.update(10L, "a", MessageStatus.STREAMING);
+        CompletableFuture<Void> latest = writer.update(10L, "ab", MessageStatus.COMPLETE);
+        CompletableFuture<Void> other = writer.update(11L, "c", MessageStatus.STREAMING);
+        writer.writeAndWait(message("user"));
+
+        CompletableFuture.allOf(superseded, latest, other).join();
+        verify(repository, never()).updateContent(10L, "a", MessageStatus.STREAMING);
+        verify(repository).updateContent(10L, "ab", MessageStatus.COMPLETE);
+        verify(repository).updateContent(11L, "c", MessageStatus.STREAMING);
+    }
+
+    @Test
+    void failedBatchInsertFallsBackToOneByOne() {
+        Message good = message("user");
+        good.setId(1L);
+        Message bad = message("assistant");
+        when(repository.saveAll(anyList())).thenThrow(new IllegalStateException("batch failed"));
+        doThrow(new IllegalStateException("row failed")).when(repository).save(bad);
+
+        CompletableFuture<Void> goodWrite = writer.write(good);
+        CompletableFuture<Void> badWrite = writer.write(bad);
+        writer.writeAndWait(message("assistant"));
+        goodWrite.join();
+        assertThrows(CompletionException.class, badWrite::join);
+
+        // Ids handed out for the failed batch are dropped so each row gets a fresh one
+        assertNull(good.getId());
+        verify(repository).save(good);
+        verify(repository).save(bad);
+    }
+
+    private static Message message(String role) {
+        Message message = new Message();
+        message.setConversationId(1L);
+        message.setRole(role);
+        message.setContent(role + " text");
+        return message;
+    }
+}
@@ -0,0 +1,73 @@
+package com.owieckowicz.chat_gpt_clone.features.rag;
+
+import org.junit.jupiter.api.TestReporter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Fixed local dataset for the retrieval benchmarks: clustered random vectors, so neighbours are
+ * meaningful, and queries with their exact top-K by cosine similarity.
+ */
+public record BenchmarkDataset(float[][] vectors, float[][] queries, List<Set<Integer>> truth, int k) {
+
+    public static BenchmarkDataset generate(int count, int dimensions, int queryCount, int k, long seed) {
+        Random random = new Random(seed);
+        float[][] centers = new float[Math.max(1, count / 100)][dimensions];
+        for (float[] c : centers) for (int i = 0; i < dimensions; i++) c[i] = (float) random.nextGaussian();
+        float[][] vectors = new float[count][];
+        for (int n = 0; n < count; n++) vectors[n] = near(centers[random.nextInt(centers.length)], random);
+        float[][] queries = new float[queryCount][];
+        List<Set<Integer>> truth = new ArrayList<>();
+        for (int q = 0; q < queryCount; q++) {
+            queries[q] = near(centers[random.nextInt(centers.length)], random);
+            truth.add(exactTopK(vectors, queries[q], k));
+        }
+        return new BenchmarkDataset(vectors, queries, truth, k);
+    }
+
+    public static double recall(List<Integer> found, Set<Integer> truth) {
+        int hits = 0;
+        for (int id : found) if (truth.contains(id)) hits++;
+        return (double) hits / truth.size();
+    }
+
+    public static void report(TestReporter reporter, String name, double recall, long[] latenciesNanos) {
+        long[] sorted = latenciesNanos.clone();
+        Arrays.sort(sorted);
+        reporter.publishEntry(name, "recall %.3f, p50 %.3f ms, p99 %.3f ms".formatted(recall,
+                sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6));
+    }
+
+    public static float[] unit(float[] v) {
+        double norm = 0;
+        for (float x : v) norm += x * x;
+        norm = Math.sqrt(norm);
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) out[i] = norm == 0 ? 0 : (float) (v[i] / norm);
+        return out;
+    }
+
+    private static float[] near(float[] center, Random random) {
+        float[] v = new float[center.length];
+        for (int i = 0; i < v.length; i++) v[i] = center[i] + (float) random.nextGaussian() * 0.5f;
+        return v;
+    }
+
+    private static Set<Integer> exactTopK(float[][] vectors, float[] query, int k) {
+        float[] q = unit(query);
+        Integer[] ids = new Integer[vectors.length];
+        double[] scores = new double[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            ids[i] = i;
+            float[] v = unit(vectors[i]);
+            for (int d = 0; d < q.length; d++) scores[i] += v[d] * q[d];
+        }
+        Arrays.sort(ids, (a, b) -> Double.compare(scores[b], scores[a]));
+        return new HashSet<>(Arrays.asList(ids).subList(0, k));
+    }
+}
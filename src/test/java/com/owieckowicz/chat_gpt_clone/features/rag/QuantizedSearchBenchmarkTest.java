@@ -0,0 +1,263 @@
+package com.owieckowicz.chat_gpt_clone.features.rag;
+
+import com.pgvector.PGvector;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recall@10 and query latency of a binary-quantized prefilter with full-precision re-ranking against
+ * exact search. The in-JVM side mirrors what {@code binary_quantize} and {@code <~>} do in Postgres;
+ * with {@code -Dbenchmark.jdbc.url} (plus {@code .user}, {@code .password}) the same comparison runs
+ * against pgvector. A second case restricts the search to one conversation, as retrieval always does,
+ * and compares scanning only its rows with filtering the nearest rows of the whole table.
+ * Run with {@code mvn test -Dbenchmark=true -Dtest=QuantizedSearchBenchmarkTest}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class QuantizedSearchBenchmarkTest {
+    private static final int VECTORS = 20_000;
+    private static final int DIMENSIONS = 768;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+    private static final int RERANK_FACTOR = 10;
+    // Vector i belongs to conversation i % CONVERSATIONS; the filtered case searches conversation 0
+    private static final int CONVERSATIONS = 40;
+
+    @Test
+    void quantizedAgainstExact(TestReporter reporter) throws Exception {
+        BenchmarkDataset data = BenchmarkDataset.generate(VECTORS, DIMENSIONS, QUERIES, K, 42);
+        float[][] unit = new float[VECTORS][];
+        long[][] bits = new long[VECTORS][];
+        for (int i = 0; i < VECTORS; i++) {
+            unit[i] = BenchmarkDataset.unit(data.vectors()[i]);
+            bits[i] = quantize(unit[i]);
+        }
+        reporter.publishEntry("index size", "float %d KB, bit %d KB".formatted(
+                (long) VECTORS * DIMENSIONS * Float.BYTES / 1024, (long) VECTORS * bits[0].length * Long.BYTES / 1024));
+
+        double exactRecall = 0;
+        double quantizedRecall = 0;
+        long[] exactLatencies = new long[QUERIES];
+        long[] quantizedLatencies = new long[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = BenchmarkDataset.unit(data.queries()[q]);
+
+            long start = System.nanoTime();
+            List<Integer> exact = rerank(unit, query, allIds(), K);
+            exactLatencies[q] = System.nanoTime() - start;
+            exactRecall += BenchmarkDataset.recall(exact, data.truth().get(q));
+
+            start = System.nanoTime();
+            int[] candidates = hammingTopN(bits, quantize(query), allIds(), K * RERANK_FACTOR);
+            List<Integer> quantized = rerank(unit, query, candidates, K);
+            quantizedLatencies[q] = System.nanoTime() - start;
+            quantizedRecall += BenchmarkDataset.recall(quantized, data.truth().get(q));
+        }
+        BenchmarkDataset.report(reporter, "exact", exactRecall / QUERIES, exactLatencies);
+        BenchmarkDataset.report(reporter, "binary + rerank x" + RERANK_FACTOR, quantizedRecall / QUERIES, quantizedLatencies);
+        assertTrue(quantizedRecall / QUERIES >= 0.9, "Quantized recall@10 below 0.9: " + quantizedRecall / QUERIES);
+
+        String url = System.getProperty("benchmark.jdbc.url");
+        if (url != null) pgvector(reporter, url, data);
+    }
+
+    @Test
+    void quantizedWithinAConversation(TestReporter reporter) {
+        BenchmarkDataset data = BenchmarkDataset.generate(VECTORS, DIMENSIONS, QUERIES, K, 42);
+        float[][] unit = new float[VECTORS][];
+        long[][] bits = new long[VECTORS][];
+        for (int i = 0; i < VECTORS; i++) {
+            unit[i] = BenchmarkDataset.unit(data.vectors()[i]);
+            bits[i] = quantize(unit[i]);
+        }
+        int[] conversation = conversationIds();
+        List<Set<Integer>> truth = conversationTruth(unit, data);
+
+        double globalRecall = 0;
+        double scopedRecall = 0;
+        long[] globalLatencies = new long[QUERIES];
+        long[] scopedLatencies = new long[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = BenchmarkDataset.unit(data.queries()[q]);
+            long[] queryBits = quantize(query);
+
+            // What a table-wide bit index returns before the conversation filter is applied
+            long start = System.nanoTime();
+            int[] candidates = Arrays.stream(hammingTopN(bits, queryBits, allIds(), K * RERANK_FACTOR))
+                    .filter(id -> id % CONVERSATIONS == 0).toArray();
+            List<Integer> global = rerank(unit, query, candidates, K);
+            globalLatencies[q] = System.nanoTime() - start;
+            globalRecall += BenchmarkDataset.recall(global, truth.get(q));
+
+            start = System.nanoTime();
+            List<Integer> scoped = rerank(unit, query, hammingTopN(bits, queryBits, conversation, K * RERANK_FACTOR), K);
+            scopedLatencies[q] = System.nanoTime() - start;
+            scopedRecall += BenchmarkDataset.recall(scoped, truth.get(q));
+        }
+        BenchmarkDataset.report(reporter, "filtered: global binary + rerank x" + RERANK_FACTOR, globalRecall / QUERIES, globalLatencies);
+        BenchmarkDataset.report(reporter, "filtered: scoped binary + rerank x" + RERANK_FACTOR, scopedRecall / QUERIES, scopedLatencies);
+        // The conversation's rows are spread thinly over the clusters, so its neighbours are further apart
+        // and the bar is lower than for the whole table
+        assertTrue(scopedRecall / QUERIES >= 0.85, "Scoped quantized recall@10 below 0.85: " + scopedRecall / QUERIES);
+        assertTrue(scopedRecall > globalRecall, "Scoped candidates no better than filtered global ones");
+    }
+
+    private void pgvector(TestReporter reporter, String url, BenchmarkDataset data) throws Exception {
+        try (Connection conn = DriverManager.getConnection(url,
+                System.getProperty("benchmark.jdbc.user"), System.getProperty("benchmark.jdbc.password"))) {
+            PGvector.addVectorType(conn);
+            try (Statement st = conn.createStatement()) {
+                st.execute("""
+                        CREATE TEMP TABLE bench_quantized (
+                            id int PRIMARY KEY,
+                            conversation_id int NOT NULL,
+                            embedding vector(%d),
+                            embedding_bq bit(%d) GENERATED ALWAYS AS (binary_quantize(embedding)::bit(%d)) STORED)"""
+                        .formatted(DIMENSIONS, DIMENSIONS, DIMENSIONS));
+            }
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO bench_quantized (id, conversation_id, embedding) VALUES (?, ?, ?)")) {
+                for (int i = 0; i < VECTORS; i++) {
+                    ps.setInt(1, i);
+                    ps.setInt(2, i % CONVERSATIONS);
+                    ps.setObject(3, new PGvector(data.vectors()[i]));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (Statement st = conn.createStatement()) {
+                st.execute("CREATE INDEX ON bench_quantized USING hnsw (embedding vector_cosine_ops)");
+                st.execute("CREATE INDEX ON bench_quantized USING hnsw (embedding_bq bit_hamming_ops)");
+                st.execute("CREATE INDEX ON bench_quantized (conversation_id)");
+                st.execute("ANALYZE bench_quantized");
+                st.execute("SET hnsw.ef_search = " + Math.max(40, K * RERANK_FACTOR));
+            }
+
+            pgQuery(reporter, conn, data, data.truth(), "pgvector float", "SELECT id FROM bench_quantized ORDER BY embedding <=> ? LIMIT " + K, 1);
+            pgQuery(reporter, conn, data, data.truth(), "pgvector binary + rerank x" + RERANK_FACTOR, """
+                    SELECT id FROM (
+                        SELECT id, embedding FROM bench_quantized
+                        ORDER BY embedding_bq <~> binary_quantize(?::vector)::bit(%d)
+                        LIMIT %d
+                    ) candidates
+                    ORDER BY embedding <=> ?
+                    LIMIT %d""".formatted(DIMENSIONS, K * RERANK_FACTOR, K), 2);
+
+            float[][] unit = new float[VECTORS][];
+            for (int i = 0; i < VECTORS; i++) unit[i] = BenchmarkDataset.unit(data.vectors()[i]);
+            List<Set<Integer>> truth = conversationTruth(unit, data);
+            pgQuery(reporter, conn, data, truth, "pgvector filtered: global binary + rerank x" + RERANK_FACTOR, """
+                    SELECT id FROM (
+                        SELECT id, embedding FROM bench_quantized
+                        WHERE conversation_id = 0
+                        ORDER BY embedding_bq <~> binary_quantize(?::vector)::bit(%d)
+                        LIMIT %d
+                    ) candidates
+                    ORDER BY embedding <=> ?
+                    LIMIT %d""".formatted(DIMENSIONS, K * RERANK_FACTOR, K), 2);
+            // The shape RetrievalService runs: an exact Hamming scan of the conversation's rows
+            pgQuery(reporter, conn, data, truth, "pgvector filtered: scoped binary + rerank x" + RERANK_FACTOR, """
+                    SELECT id FROM (
+                        SELECT id, embedding FROM bench_quantized
+                        WHERE conversation_id = 0
+                        ORDER BY (embedding_bq <~> binary_quantize(?::vector)::bit(%d)) + 0
+                        LIMIT %d
+                    ) candidates
+                    ORDER BY embedding <=> ?
+                    LIMIT %d""".formatted(DIMENSIONS, K * RERANK_FACTOR, K), 2);
+        }
+    }
+
+    private void pgQuery(TestReporter reporter, Connection conn, BenchmarkDataset data, List<Set<Integer>> truth,
+                         String name, String sql, int vectorParams) throws Exception {
+        double recall = 0;
+        long[] latencies = new long[QUERIES];
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int q = 0; q < QUERIES; q++) {
+                for (int p = 1; p <= vectorParams; p++) ps.setObject(p, new PGvector(data.queries()[q]));
+                long start = System.nanoTime();
+                List<Integer> ids = new ArrayList<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) ids.add(rs.getInt(1));
+                }
+                latencies[q] = System.nanoTime() - start;
+                recall += BenchmarkDataset.recall(ids, truth.get(q));
+            }
+        }
+        BenchmarkDataset.report(reporter, name, recall / QUERIES, latencies);
+    }
+
+    /**
+     * One bit per dimension, set when the component is positive, as {@code binary_quantize} does.
+     */
+    private static long[] quantize(float[] v) {
+        long[] out = new long[(v.length + 63) / 64];
+        for (int i = 0; i < v.length; i++) if (v[i] > 0) out[i >> 6] |= 1L << (i & 63);
+        return out;
+    }
+
+    private static int[] hammingTopN(long[][] bits, long[] query, int[] ids, int n) {
+        long[] keyed = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            int distance = 0;
+            for (int w = 0; w < query.length; w++) distance += Long.bitCount(bits[ids[i]][w] ^ query[w]);
+            // Distance in the high bits, id in the low bits, so one sort orders by distance
+            keyed[i] = ((long) distance << 32) | ids[i];
+        }
+        Arrays.sort(keyed);
+        int[] top = new int[Math.min(n, keyed.length)];
+        for (int i = 0; i < top.length; i++) top[i] = (int) keyed[i];
+        return top;
+    }
+
+    private static List<Integer> rerank(float[][] unit, float[] query, int[] ids, int k) {
+        double[] scores = new double[ids.length];
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            order[i] = i;
+            float[] v = unit[ids[i]];
+            float sum = 0;
+            for (int d = 0; d < query.length; d++) sum += v[d] * query[d];
+            scores[i] = sum;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        List<Integer> out = new ArrayList<>(k);
+        for (int i = 0; i < Math.min(k, order.length); i++) out.add(ids[order[i]]);
+        return out;
+    }
+
+    /**
+     * Exact top-K of each query among the vectors of conversation 0.
+     */
+    private static List<Set<Integer>> conversationTruth(float[][] unit, BenchmarkDataset data) {
+        List<Set<Integer>> truth = new ArrayList<>();
+        for (float[] query : data.queries()) {
+            truth.add(new HashSet<>(rerank(unit, BenchmarkDataset.unit(query), conversationIds(), K)));
+        }
+        return truth;
+    }
+
+    private static int[] conversationIds() {
+        int[] ids = new int[VECTORS / CONVERSATIONS];
+        for (int i = 0; i < ids.length; i++) ids[i] = i * CONVERSATIONS;
+        return ids;
+    }
+
+    private static int[] allIds() {
+        int[] ids = new int[VECTORS];
+        for (int i = 0; i < VECTORS; i++) ids[i] = i;
+        return ids;
+    }
+}
@@ -0,0 +1,90 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.hnsw;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationIndexTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void buildThenLoadReturnsTheSameChunks() throws IOException {
+        List<ConversationIndex.Chunk> chunks = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            chunks.add(new ConversationIndex.Chunk("id-" + i, "chunk " + i, Map.of("page_number", i)));
+            float[] v = new float[4];
+            v[i % 4] = 1;
+            v[(i + 1) % 4] = i / 20f;
+            embeddings.add(v);
+        }
+        float[] query = {0, 0, 1, 0};
+
+        List<Document> built;
+        try (ConversationIndex index = ConversationIndex.build(dir, chunks, embeddings, 8, 50, objectMapper)) {
+            built = index.search(query, 3, 32, 0.0);
+        }
+        try (ConversationIndex loaded = ConversationIndex.load(dir, 8, 50, objectMapper)) {
+            assertEquals(20, loaded.size());
+            List<Document> found = loaded.search(query, 3, 32, 0.0);
+            assertEquals(built.stream().map(Document::getId).toList(), found.stream().map(Document::getId).toList());
+            assertEquals("id-2", found.get(0).getId());
+            assertEquals("chunk 2", found.get(0).getText());
+            assertEquals(2, found.get(0).getMetadata().get("page_number"));
+            assertEquals(1.0 - found.get(0).getScore(), (double) found.get(0).getMetadata().get("distance"), 1e-9);
+        }
+    }
+
+    @Test
+    void missingGraphIsRebuiltOnLoad() throws IOException {
+        List<ConversationIndex.Chunk> chunks = List.of(
+                new ConversationIndex.Chunk("a", "first", Map.of()),
+                new ConversationIndex.Chunk("b", "second", Map.of()));
+        ConversationIndex.build(dir, chunks, List.of(new float[]{1, 0}, new float[]{0, 1}), 8, 50, objectMapper).close();
+        Files.delete(dir.resolve(ConversationIndex.GRAPH));
+
+        try (ConversationIndex loaded = ConversationIndex.load(dir, 8, 50, objectMapper)) {
+            assertEquals("b", loaded.search(new float[]{0, 1}, 1, 32, 0.0).get(0).getId());
+        }
+        assertTrue(Files.exists(dir.resolve(ConversationIndex.GRAPH)));
+    }
+
+    @Test
+    void mismatchedFilesAreNotLoaded() throws IOException {
+        List<ConversationIndex.Chunk> chunks = List.of(
+                new ConversationIndex.Chunk("a", "first", Map.of()),
+                new ConversationIndex.Chunk("b", "second", Map.of()));
+        ConversationIndex.build(dir, chunks, List.of(new float[]{1, 0}, new float[]{0, 1}), 8, 50, objectMapper).close();
+        Files.writeString(dir.resolve(ConversationIndex.CHUNKS),
+                objectMapper.writeValueAsString(chunks.get(0)) + System.lineSeparator());
+
+        assertNull(ConversationIndex.load(dir, 8, 50, objectMapper));
+    }
+
+    @Test
+    void thresholdDropsDistantChunks() throws IOException {
+        List<ConversationIndex.Chunk> chunks = List.of(
+                new ConversationIndex.Chunk("near", "near", Map.of()),
+                new ConversationIndex.Chunk("far", "far", Map.of()));
+        try (ConversationIndex index = ConversationIndex.build(dir, chunks,
+                List.of(new float[]{1, 0}, new float[]{-1, 0}), 8, 50, objectMapper)) {
+            List<Document> found = index.search(new float[]{1, 0}, 2, 32, 0.5);
+            assertEquals(List.of("near"), found.stream().map(Document::getId).toList());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.hnsw;
+
+import com.owieckowicz.chat_gpt_clone.features.rag.BenchmarkDataset;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswGraphTest {
+    private static final int VECTORS = 1_000;
+    private static final int DIMENSIONS = 32;
+    private static final int QUERIES = 50;
+    private static final int K = 10;
+
+    @TempDir
+    Path dir;
+
+    private BenchmarkDataset data;
+    private VectorFile vectors;
+    private HnswGraph graph;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        data = BenchmarkDataset.generate(VECTORS, DIMENSIONS, QUERIES, K, 7);
+        vectors = VectorFile.create(dir.resolve("v.f32"), DIMENSIONS);
+        graph = new HnswGraph(vectors, 16, 100);
+        for (float[] v : data.vectors()) graph.insert(vectors.append(v));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        vectors.close();
+    }
+
+    @Test
+    void findsNearestNeighbours() {
+        double recall = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            List<HnswGraph.Scored> hits = graph.search(VectorFile.unit(data.queries()[q]), K, 64);
+            assertEquals(K, hits.size());
+            for (int i = 1; i < hits.size(); i++) {
+                assertTrue(hits.get(i - 1).similarity() >= hits.get(i).similarity(), "results not best first");
+            }
+            recall += BenchmarkDataset.recall(hits.stream().map(HnswGraph.Scored::node).toList(), data.truth().get(q));
+        }
+        assertTrue(recall / QUERIES >= 0.95, "recall@10 " + recall / QUERIES);
+    }
+
+    @Test
+    void savedLinksGiveTheSameResults() throws IOException {
+        Path path = dir.resolve("graph.bin");
+        graph.write(path);
+        HnswGraph read = HnswGraph.read(path, vectors, 16, 100);
+
+        assertEquals(graph.size(), read.size());
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = VectorFile.unit(data.queries()[q]);
+            assertEquals(graph.search(query, K, 64), read.search(query, K, 64));
+        }
+    }
+
+    @Test
+    void savedLinksForOtherVectorsAreRejected() throws IOException {
+        Path path = dir.resolve("graph.bin");
+        graph.write(path);
+        vectors.append(data.vectors()[0]);
+        assertNull(HnswGraph.read(path, vectors, 16, 100));
+    }
+
+    @Test
+    void emptyGraphFindsNothing() throws IOException {
+        try (VectorFile empty = VectorFile.create(dir.resolve("empty.f32"), DIMENSIONS)) {
+            assertTrue(new HnswGraph(empty, 16, 100).search(new float[DIMENSIONS], K, 64).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.hnsw;
+
+import com.owieckowicz.chat_gpt_clone.features.rag.BenchmarkDataset;
+import com.pgvector.PGvector;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recall@10 and query latency of the in-process HNSW index against exact search, and against pgvector's
+ * HNSW index when {@code -Dbenchmark.jdbc.url} (plus {@code .user}, {@code .password}) points at a
+ * database with the vector extension. Run with {@code mvn test -Dbenchmark=true -Dtest=HnswVectorStoreBenchmarkTest}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class HnswVectorStoreBenchmarkTest {
+    private static final int VECTORS = 5_000;
+    private static final int DIMENSIONS = 768;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+    // Same as the rag.hnsw.ef-search default
+    private static final int EF_SEARCH = 100;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void hnswAgainstExactAndPgvector(TestReporter reporter) throws Exception {
+        BenchmarkDataset data = BenchmarkDataset.generate(VECTORS, DIMENSIONS, QUERIES, K, 42);
+
+        long buildStart = System.nanoTime();
+        try (VectorFile file = VectorFile.create(dir.resolve(ConversationIndex.VECTORS), DIMENSIONS)) {
+            HnswGraph graph = new HnswGraph(file, 16, 100);
+            for (float[] v : data.vectors()) graph.insert(file.append(v));
+            reporter.publishEntry("hnsw build", "%d vectors in %.0f ms".formatted(VECTORS, (System.nanoTime() - buildStart) / 1e6));
+
+            double recall = 0;
+            long[] latencies = new long[QUERIES];
+            for (int q = 0; q < QUERIES; q++) {
+                long start = System.nanoTime();
+                List<HnswGraph.Scored> hits = graph.search(VectorFile.unit(data.queries()[q]), K, EF_SEARCH);
+                latencies[q] = System.nanoTime() - start;
+                recall += BenchmarkDataset.recall(hits.stream().map(HnswGraph.Scored::node).toList(), data.truth().get(q));
+            }
+            recall /= QUERIES;
+            BenchmarkDataset.report(reporter, "hnsw", recall, latencies);
+            assertTrue(recall >= 0.9, "HNSW recall@10 below 0.9: " + recall);
+        }
+
+        String url = System.getProperty("benchmark.jdbc.url");
+        if (url != null) pgvector(reporter, url, data);
+    }
+
+    private void pgvector(TestReporter reporter, String url, BenchmarkDataset data) throws Exception {
+        try (Connection conn = DriverManager.getConnection(url,
+                System.getProperty("benchmark.jdbc.user"), System.getProperty("benchmark.jdbc.password"))) {
+            PGvector.addVectorType(conn);
+            try (Statement st = conn.createStatement()) {
+                st.execute("CREATE TEMP TABLE bench_vectors (id int PRIMARY KEY, embedding vector(" + DIMENSIONS + "))");
+            }
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO bench_vectors VALUES (?, ?)")) {
+                for (int i = 0; i < VECTORS; i++) {
+                    ps.setInt(1, i);
+                    ps.setObject(2, new PGvector(data.vectors()[i]));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (Statement st = conn.createStatement()) {
+                st.execute("CREATE INDEX ON bench_vectors USING hnsw (embedding vector_cosine_ops)");
+                st.execute("ANALYZE bench_vectors");
+            }
+
+            double recall = 0;
+            long[] latencies = new long[QUERIES];
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT id FROM bench_vectors ORDER BY embedding <=> ? LIMIT " + K)) {
+                for (int q = 0; q < QUERIES; q++) {
+                    ps.setObject(1, new PGvector(data.queries()[q]));
+                    long start = System.nanoTime();
+                    List<Integer> ids = new ArrayList<>();
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) ids.add(rs.getInt(1));
+                    }
+                    latencies[q] = System.nanoTime() - start;
+                    recall += BenchmarkDataset.recall(ids, data.truth().get(q));
+                }
+            }
+            BenchmarkDataset.report(reporter, "pgvector", recall / QUERIES, latencies);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.owieckowicz.chat_gpt_clone.features.rag.hnsw;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VectorFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void appendedVectorsAreNormalizedAndSurviveReopen() throws IOException {
+        Path path = dir.resolve("v.f32");
+        try (VectorFile file = VectorFile.create(path, 2)) {
+            assertEquals(0, file.append(new float[]{3, 4}));
+            assertEquals(1, file.append(new float[]{0, -2}));
+            file.force();
+        }
+        try (VectorFile file = VectorFile.open(path)) {
+            assertEquals(2, file.dimensions());
+            assertEquals(2, file.size());
+            assertEquals(1.0, file.dot(0, new float[]{0.6f, 0.8f}), 1e-6);
+            assertEquals(-0.8, file.dot(0, 1), 1e-6);
+            // Appending after reopen continues at the next slot
+            assertEquals(2, file.append(new float[]{1, 0}));
+        }
+    }
+
+    @Test
+    void growsPastInitialMapping() throws IOException {
+        try (VectorFile file = VectorFile.create(dir.resolve("v.f32"), 4)) {
+            for (int i = 0; i < 3000; i++) file.append(new float[]{i + 1, 0, 0, 0});
+            assertEquals(3000, file.size());
+            assertEquals(1.0, file.dot(2999, new float[]{1, 0, 0, 0}), 1e-6);
+        }
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        Path path = dir.resolve("v.f32");
+        try (VectorFile file = VectorFile.create(path, 8)) {
+            for (int i = 0; i < 10; i++) file.append(new float[]{1, 2, 3, 4, 5, 6, 7, 8});
+            file.force();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(16 + 5L * 8 * Float.BYTES);
+        }
+        assertThrows(IOException.class, () -> VectorFile.open(path));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path path = dir.resolve("other.bin");
+        Files.write(path, new byte[64]);
+        assertThrows(IOException.class, () -> VectorFile.open(path));
+    }
+
+    @Test
+    void rejectsWrongDimensions() throws IOException {
+        try (VectorFile file = VectorFile.create(dir.resolve("v.f32"), 3)) {
+            assertThrows(IllegalArgumentException.class, () -> file.append(new float[]{1, 2}));
+        }
+    }
+
+    @Test
+    void parsesPgvectorText() {
+        assertArrayEquals(new float[]{1f, -2.5f, 3e-4f}, VectorFile.parse("[1,-2.5, 3e-4]"));
+        assertArrayEquals(new float[0], VectorFile.parse("[]"));
+        assertThrows(IllegalArgumentException.class, () -> VectorFile.parse("1,2"));
+    }
+}